@@ -0,0 +1,42 @@
+package com.iota.iri.benchmarks;
+
+import java.util.Random;
+
+import com.iota.iri.hash.PearlDiver;
+import com.iota.iri.model.Transaction;
+
+/**
+ * Synthetic transactions for the benchmarks, deterministic for a given seed.
+ */
+public class BenchmarkTransactions {
+
+    public static final int MIN_WEIGHT_MAGNITUDE = 18; // Transactions below it are rejected when constructed from bytes
+
+    /**
+     * Random signature, address, tag, bundle, trunk and branch with a zero value, the nonce is left empty.
+     */
+    public static int[] randomTransactionTrits(final Random random) {
+
+        final int[] trits = new int[Transaction.TRINARY_SIZE];
+        for (int i = 0; i < Transaction.VALUE_TRINARY_OFFSET; i++) {
+            trits[i] = random.nextInt(3) - 1;
+        }
+        for (int i = Transaction.TAG_TRINARY_OFFSET; i < Transaction.TAG_TRINARY_OFFSET + Transaction.TAG_TRINARY_SIZE; i++) {
+            trits[i] = random.nextInt(3) - 1;
+        }
+        for (int i = Transaction.BUNDLE_TRINARY_OFFSET; i < Transaction.BRANCH_TRANSACTION_TRINARY_OFFSET + Transaction.BRANCH_TRANSACTION_TRINARY_SIZE; i++) {
+            trits[i] = random.nextInt(3) - 1;
+        }
+        return trits;
+    }
+
+    /**
+     * Random transaction with a nonce satisfying {@link #MIN_WEIGHT_MAGNITUDE}, takes a few seconds.
+     */
+    public static int[] minedTransactionTrits(final Random random) {
+
+        final int[] trits = randomTransactionTrits(random);
+        new PearlDiver().search(trits, MIN_WEIGHT_MAGNITUDE, 0);
+        return trits;
+    }
+}
@@ -0,0 +1,63 @@
+package com.iota.iri.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.iota.iri.utils.Converter;
+
+/**
+ * Conversions of a whole transaction, as done by the API and the node for every transaction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ConverterBenchmark {
+
+    private int[] trits;
+    private int[] scratchTrits;
+    private byte[] bytes;
+    private String trytes;
+
+    @Setup
+    public void setup() {
+        trits = BenchmarkTransactions.randomTransactionTrits(new Random(1));
+        scratchTrits = new int[trits.length];
+        bytes = Converter.bytes(trits);
+        trytes = Converter.trytes(trits);
+    }
+
+    @Benchmark
+    public int[] trits() {
+        return Converter.trits(trytes);
+    }
+
+    @Benchmark
+    public String trytes() {
+        return Converter.trytes(trits);
+    }
+
+    @Benchmark
+    public byte[] bytes() {
+        return Converter.bytes(trits);
+    }
+
+    @Benchmark
+    public int[] getTrits() {
+        Converter.getTrits(bytes, scratchTrits);
+        return scratchTrits;
+    }
+}
@@ -0,0 +1,85 @@
+package com.iota.iri.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.iota.iri.hash.BatchCurl;
+import com.iota.iri.hash.Curl;
+import com.iota.iri.model.Transaction;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CurlBenchmark {
+
+    private final Curl curl = new Curl();
+    private final BatchCurl batchCurl = new BatchCurl();
+
+    private int[] hashTrits;
+    private int[] transactionTrits;
+
+    private int[][] batchTransactionTrits;
+    private int[][] batchHashTrits;
+
+    @Setup
+    public void setup() {
+
+        final Random random = new Random(1);
+        hashTrits = new int[Curl.HASH_LENGTH];
+        for (int i = 0; i < hashTrits.length; i++) {
+            hashTrits[i] = random.nextInt(3) - 1;
+        }
+        transactionTrits = BenchmarkTransactions.randomTransactionTrits(random);
+
+        batchTransactionTrits = new int[BatchCurl.MAX_NUMBER_OF_INSTANCES][];
+        for (int i = 0; i < batchTransactionTrits.length; i++) {
+            batchTransactionTrits[i] = BenchmarkTransactions.randomTransactionTrits(random);
+        }
+        batchHashTrits = new int[BatchCurl.MAX_NUMBER_OF_INSTANCES][Curl.HASH_LENGTH];
+    }
+
+    /**
+     * A single transform, the unit of work of every other hashing benchmark.
+     */
+    @Benchmark
+    public int[] hashHash() {
+        curl.reset();
+        curl.absorb(hashTrits, 0, hashTrits.length);
+        curl.squeeze(hashTrits, 0, Curl.HASH_LENGTH);
+        return hashTrits;
+    }
+
+    @Benchmark
+    public int[] transactionHash() {
+        final int[] transactionHashTrits = new int[Curl.HASH_LENGTH];
+        curl.reset();
+        curl.absorb(transactionTrits, 0, Transaction.TRINARY_SIZE);
+        curl.squeeze(transactionHashTrits, 0, Curl.HASH_LENGTH);
+        return transactionHashTrits;
+    }
+
+    /**
+     * Hashes {@link BatchCurl#MAX_NUMBER_OF_INSTANCES} transactions, compare against that many {@link #transactionHash()}.
+     */
+    @Benchmark
+    public int[][] batchTransactionHash() {
+        batchCurl.reset();
+        batchCurl.absorb(batchTransactionTrits, batchTransactionTrits.length, 0, Transaction.TRINARY_SIZE);
+        batchCurl.squeeze(batchHashTrits, batchTransactionTrits.length, 0, Curl.HASH_LENGTH);
+        return batchHashTrits;
+    }
+}
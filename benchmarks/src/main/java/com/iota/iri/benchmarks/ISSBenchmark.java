@@ -0,0 +1,81 @@
+package com.iota.iri.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.iota.iri.hash.Curl;
+import com.iota.iri.hash.ISS;
+
+/**
+ * The signature scheme as used by milestone and bundle validation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ISSBenchmark {
+
+    @Param({"1", "2", "3"})
+    public int numberOfFragments;
+
+    private int[] key;
+    private int[] digests;
+    private int[] normalizedBundleFragment;
+    private int[] signatureFragment;
+
+    @Setup
+    public void setup() {
+
+        final Random random = new Random(1);
+        final int[] seed = new int[Curl.HASH_LENGTH];
+        for (int i = 0; i < seed.length; i++) {
+            seed[i] = random.nextInt(3) - 1;
+        }
+        final int[] bundle = new int[Curl.HASH_LENGTH];
+        for (int i = 0; i < bundle.length; i++) {
+            bundle[i] = random.nextInt(3) - 1;
+        }
+
+        key = ISS.key(ISS.subseed(seed, 0), numberOfFragments);
+        digests = ISS.digests(key);
+        normalizedBundleFragment = Arrays.copyOf(ISS.normalizedBundle(bundle), ISS.NUMBER_OF_FRAGMENT_CHUNKS);
+        signatureFragment = ISS.signatureFragment(normalizedBundleFragment, Arrays.copyOf(key, signatureFragmentLength()));
+    }
+
+    @Benchmark
+    public int[] digests() {
+        return ISS.digests(key);
+    }
+
+    @Benchmark
+    public int[] address() {
+        return ISS.address(digests);
+    }
+
+    /**
+     * Verification of a single signature fragment.
+     */
+    @Benchmark
+    public int[] digest() {
+        return ISS.digest(normalizedBundleFragment, signatureFragment);
+    }
+
+    private int signatureFragmentLength() {
+        return key.length / numberOfFragments;
+    }
+}
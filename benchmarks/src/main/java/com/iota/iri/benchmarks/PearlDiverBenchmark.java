@@ -0,0 +1,52 @@
+package com.iota.iri.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.iota.iri.hash.PearlDiver;
+
+/**
+ * Proof of work is random, every invocation searches a fresh transaction so the average converges.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 10, time = 5)
+@Fork(1)
+public class PearlDiverBenchmark {
+
+    @Param({"9", "13", "15"})
+    public int minWeightMagnitude;
+
+    @Param({"1", "2", "4", "0"}) // 0 uses all the cores but one
+    public int numberOfThreads;
+
+    private final PearlDiver pearlDiver = new PearlDiver();
+    private final Random random = new Random(1);
+
+    private int[] transactionTrits;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        transactionTrits = BenchmarkTransactions.randomTransactionTrits(random);
+    }
+
+    @Benchmark
+    public boolean search() {
+        return pearlDiver.search(transactionTrits, minWeightMagnitude, numberOfThreads);
+    }
+}
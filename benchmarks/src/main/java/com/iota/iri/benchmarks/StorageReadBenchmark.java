@@ -0,0 +1,81 @@
+package com.iota.iri.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.iota.iri.model.Hash;
+import com.iota.iri.model.Transaction;
+import com.iota.iri.service.storage.StorageApprovers;
+import com.iota.iri.service.storage.StorageTransactions;
+
+/**
+ * Lookups in a prebuilt {@link StorageState}, single-threaded and with all the cores reading at once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StorageReadBenchmark {
+
+    @Benchmark
+    public long transactionPointerHit(final StorageState storage) {
+        return StorageTransactions.instance().transactionPointer(storage.storedHash());
+    }
+
+    @Benchmark
+    public long transactionPointerMiss(final StorageState storage) {
+        return StorageTransactions.instance().transactionPointer(storage.missingHash());
+    }
+
+    @Benchmark
+    public Transaction loadTransaction(final StorageState storage) {
+        return StorageTransactions.instance().loadTransaction(storage.storedHash());
+    }
+
+    /**
+     * Pointers of all the approvers of a transaction, the step of every walk towards the tips.
+     */
+    @Benchmark
+    public void approveeTransactions(final StorageState storage, final Blackhole blackhole) {
+        final long approveePointer = StorageApprovers.instance().approveePointer(storage.storedHash());
+        if (approveePointer != 0) {
+            StorageApprovers.instance().approveeTransactions(approveePointer, blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Hash> tips(final StorageState storage) {
+        return StorageTransactions.instance().tips();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public long transactionPointerHitContended(final StorageState storage) {
+        return StorageTransactions.instance().transactionPointer(storage.storedHash());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void approveeTransactionsContended(final StorageState storage, final Blackhole blackhole) {
+        approveeTransactions(storage, blackhole);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Hash> tipsContended(final StorageState storage) {
+        return StorageTransactions.instance().tips();
+    }
+}
@@ -0,0 +1,87 @@
+package com.iota.iri.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.model.Transaction;
+import com.iota.iri.service.storage.Storage;
+import com.iota.iri.service.storage.StorageTransactions;
+
+/**
+ * A store of {@link #numberOfTransactions} synthetic transactions in a temporary directory.
+ *
+ * The storages are singletons, so every trial needs its own fork.
+ * A transaction takes roughly 10KB over all the storage files, mind the free space of {@code java.io.tmpdir}
+ * before running with e.g. {@code -p numberOfTransactions=10000000,50000000}.
+ */
+@State(Scope.Benchmark)
+public class StorageState {
+
+    private static final int NUMBER_OF_SAMPLES = 1 << 16;
+
+    @Param({"1000000"})
+    public int numberOfTransactions;
+
+    SyntheticTangle tangle;
+
+    private final byte[][] storedHashes = new byte[NUMBER_OF_SAMPLES][];
+    private final byte[][] missingHashes = new byte[NUMBER_OF_SAMPLES][];
+
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+
+        directory = Files.createTempDirectory("iri-benchmark");
+        Configuration.put(DefaultConfSettings.DB_PATH, directory.toString());
+        Storage.instance().init();
+
+        tangle = new SyntheticTangle(1);
+        final Random random = new Random(1);
+        for (int i = 0; i < numberOfTransactions; i++) {
+
+            final Transaction transaction = tangle.next();
+            StorageTransactions.instance().storeTransaction(transaction.hash, transaction, false);
+
+            // Uniform sample of the stored hashes
+            final int sample = i < NUMBER_OF_SAMPLES ? i : random.nextInt(i + 1);
+            if (sample < NUMBER_OF_SAMPLES) {
+                storedHashes[sample] = transaction.hash;
+            }
+        }
+        for (int i = 0; i < missingHashes.length; i++) {
+            missingHashes[i] = tangle.missingHash();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+
+        Storage.instance().shutdown();
+        try (final Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    byte[] storedHash() {
+        return storedHashes[ThreadLocalRandom.current().nextInt(Math.min(numberOfTransactions, NUMBER_OF_SAMPLES))];
+    }
+
+    byte[] missingHash() {
+        return missingHashes[ThreadLocalRandom.current().nextInt(NUMBER_OF_SAMPLES)];
+    }
+}
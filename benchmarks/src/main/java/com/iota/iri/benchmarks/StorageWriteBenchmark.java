@@ -0,0 +1,90 @@
+package com.iota.iri.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.iota.iri.model.Transaction;
+import com.iota.iri.service.storage.StorageTransactions;
+
+/**
+ * Inserts on top of a prebuilt {@link StorageState}.
+ *
+ * {@link #storeTransaction()} and {@link #storeTransactions()} store batches generated ahead of every iteration,
+ * a single shot covers {@link #BATCH_SIZE} inserts so the insert rate is {@link #BATCH_SIZE} divided by the reported time.
+ */
+@State(Scope.Thread)
+@Fork(1)
+public class StorageWriteBenchmark {
+
+    public static final int BATCH_SIZE = 10000;
+
+    private final Transaction[] batch = new Transaction[BATCH_SIZE];
+    private int batchIndex;
+
+    @Setup(Level.Iteration)
+    public void generateBatch(final StorageState storage) {
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = storage.tangle.next();
+        }
+        batchIndex = 0;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3, batchSize = BATCH_SIZE)
+    @Measurement(iterations = 10, batchSize = BATCH_SIZE)
+    public long storeTransaction() {
+        final Transaction transaction = batch[batchIndex++];
+        return StorageTransactions.instance().storeTransaction(transaction.hash, transaction, false);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    public long[] storeTransactions() {
+        return StorageTransactions.instance().storeTransactions(Arrays.asList(batch));
+    }
+
+    /**
+     * One writer against three readers, the writer's time includes generating the transaction.
+     */
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 10, time = 1)
+    public long writer(final StorageState storage) {
+        final Transaction transaction = storage.tangle.next();
+        return StorageTransactions.instance().storeTransaction(transaction.hash, transaction, false);
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(3)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 10, time = 1)
+    public long reader(final StorageState storage) {
+        return StorageTransactions.instance().transactionPointer(storage.storedHash());
+    }
+}
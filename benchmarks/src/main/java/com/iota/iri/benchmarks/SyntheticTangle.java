@@ -0,0 +1,70 @@
+package com.iota.iri.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.iota.iri.hash.Curl;
+import com.iota.iri.model.Transaction;
+import com.iota.iri.utils.Converter;
+
+/**
+ * Stream of synthetic transactions approving recent ones, like a tangle growing under steady load.
+ *
+ * The signature and the other fields nobody indexes are random once, every transaction only gets
+ * a fresh hash, bundle, trunk, branch, address and tag. The hashes are random trits instead of Curl hashes,
+ * storage never verifies them.
+ */
+public class SyntheticTangle {
+
+    private static final int NUMBER_OF_RECENT_TRANSACTIONS = 1 << 10; // Trunk and branch are picked among them
+    private static final int NUMBER_OF_ADDRESSES = 1 << 16;
+    private static final int NUMBER_OF_TAGS = 1 << 10;
+
+    private final Random random;
+    private final int[] templateTrits;
+    private final int[][] recentHashTrits = new int[NUMBER_OF_RECENT_TRANSACTIONS][Curl.HASH_LENGTH]; // The null hash until filled
+    private final int[][] addressTrits = new int[NUMBER_OF_ADDRESSES][];
+
+    private long numberOfTransactions;
+
+    public SyntheticTangle(final long seed) {
+
+        random = new Random(seed);
+        templateTrits = BenchmarkTransactions.randomTransactionTrits(random);
+        for (int i = 0; i < addressTrits.length; i++) {
+            addressTrits[i] = randomTrits(Curl.HASH_LENGTH);
+        }
+    }
+
+    public Transaction next() {
+
+        final int[] trits = Arrays.copyOf(templateTrits, templateTrits.length);
+        final int[] hashTrits = randomTrits(Curl.HASH_LENGTH);
+
+        System.arraycopy(addressTrits[random.nextInt(addressTrits.length)], 0, trits, Transaction.ADDRESS_TRINARY_OFFSET, Transaction.ADDRESS_TRINARY_SIZE);
+        Converter.copyTrits(random.nextInt(NUMBER_OF_TAGS), trits, Transaction.TAG_TRINARY_OFFSET, Transaction.TAG_TRINARY_SIZE);
+        System.arraycopy(hashTrits, 0, trits, Transaction.BUNDLE_TRINARY_OFFSET, Transaction.BUNDLE_TRINARY_SIZE); // Bundles of a single transaction
+        System.arraycopy(recentHashTrits[random.nextInt(recentHashTrits.length)], 0, trits, Transaction.TRUNK_TRANSACTION_TRINARY_OFFSET, Transaction.TRUNK_TRANSACTION_TRINARY_SIZE);
+        System.arraycopy(recentHashTrits[random.nextInt(recentHashTrits.length)], 0, trits, Transaction.BRANCH_TRANSACTION_TRINARY_OFFSET, Transaction.BRANCH_TRANSACTION_TRINARY_SIZE);
+
+        recentHashTrits[(int) (numberOfTransactions++ & (recentHashTrits.length - 1))] = hashTrits;
+
+        return new Transaction(trits, hashTrits);
+    }
+
+    /**
+     * A valid hash that is never produced by {@link #next()}.
+     */
+    public byte[] missingHash() {
+        return Arrays.copyOf(Converter.bytes(randomTrits(Curl.HASH_LENGTH)), Transaction.HASH_SIZE);
+    }
+
+    private int[] randomTrits(final int length) {
+
+        final int[] trits = new int[length];
+        for (int i = 0; i < length; i++) {
+            trits[i] = random.nextInt(3) - 1;
+        }
+        return trits;
+    }
+}
@@ -0,0 +1,69 @@
+package com.iota.iri.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.iota.iri.hash.Curl;
+import com.iota.iri.model.Transaction;
+import com.iota.iri.utils.Converter;
+
+/**
+ * Construction from bytes is what the node does per received packet, construction from trits what the API does per stored trytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TransactionBenchmark {
+
+    private final Curl curl = new Curl();
+
+    private int[] trits;
+    private int[] scratchTrits;
+    private int[] hashTrits;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+
+        trits = BenchmarkTransactions.minedTransactionTrits(new Random(1));
+        scratchTrits = new int[Transaction.TRINARY_SIZE];
+        bytes = Converter.bytes(trits);
+
+        hashTrits = new int[Curl.HASH_LENGTH];
+        curl.absorb(trits, 0, trits.length);
+        curl.squeeze(hashTrits, 0, hashTrits.length);
+        curl.reset();
+    }
+
+    @Benchmark
+    public Transaction fromBytes() {
+        return new Transaction(bytes, scratchTrits, curl);
+    }
+
+    /**
+     * {@link #fromBytes()} without hashing, as done after a {@link com.iota.iri.hash.BatchCurl} pass.
+     */
+    @Benchmark
+    public Transaction fromBytesWithHash() {
+        return new Transaction(bytes, Transaction.trits(bytes, scratchTrits), hashTrits);
+    }
+
+    @Benchmark
+    public Transaction fromTrits() {
+        return new Transaction(trits);
+    }
+}
@@ -5,6 +5,7 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -16,6 +17,7 @@ import com.iota.iri.service.API;
 import com.iota.iri.service.Node;
 import com.iota.iri.service.TipsManager;
 import com.iota.iri.service.storage.Storage;
+import com.iota.iri.service.storage.StorageImporter;
 import com.sanityinc.jargs.CmdLineParser;
 import com.sanityinc.jargs.CmdLineParser.Option;
 
@@ -35,6 +37,10 @@ public class IRI {
     public static void main(final String[] args) {
 
         log.info("Welcome to {} {}", NAME, VERSION);
+        if (args != null && args.length > 0 && "import".equals(args[0])) {
+            importTransactions(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         validateParams(args);
         shutdownHook();
 
@@ -74,6 +80,10 @@ public class IRI {
         final Option<String> remoteLimitApi = parser.addStringOption("remote-limit-api");
         final Option<String> neighbors = parser.addStringOption('n', "neighbors");
         final Option<Boolean> experimental = parser.addBooleanOption('e', "experimental");
+        final Option<String> dbPath = parser.addStringOption("db-path");
+        final Option<String> dbFlushInterval = parser.addStringOption("db-flush-interval");
+        final Option<String> dbFlushThreshold = parser.addStringOption("db-flush-threshold");
+        final Option<String> dbJournalSyncInterval = parser.addStringOption("db-journal-sync-interval");
         final Option<Boolean> help = parser.addBooleanOption('h', "help");
 
         try {
@@ -136,6 +146,26 @@ public class IRI {
             Configuration.put(DefaultConfSettings.EXPERIMENTAL, "true");
         }
 
+        final String vdbpath = parser.getOptionValue(dbPath);
+        if (vdbpath != null) {
+            Configuration.put(DefaultConfSettings.DB_PATH, vdbpath);
+        }
+
+        final String vdbflushinterval = parser.getOptionValue(dbFlushInterval);
+        if (vdbflushinterval != null) {
+            Configuration.put(DefaultConfSettings.DB_FLUSH_INTERVAL, vdbflushinterval);
+        }
+
+        final String vdbflushthreshold = parser.getOptionValue(dbFlushThreshold);
+        if (vdbflushthreshold != null) {
+            Configuration.put(DefaultConfSettings.DB_FLUSH_THRESHOLD, vdbflushthreshold);
+        }
+
+        final String vdbjournalsyncinterval = parser.getOptionValue(dbJournalSyncInterval);
+        if (vdbjournalsyncinterval != null) {
+            Configuration.put(DefaultConfSettings.DB_JOURNAL_SYNC_INTERVAL, vdbjournalsyncinterval);
+        }
+
         if (Integer.parseInt(cport) < 1024) {
             log.warn("Warning: api port value seems too low.");
         }
@@ -147,6 +177,43 @@ public class IRI {
         }
     }
 
+    private static void importTransactions(final String[] args) {
+
+        final CmdLineParser parser = new CmdLineParser();
+        final Option<String> dbPath = parser.addStringOption("db-path");
+        try {
+            parser.parse(args);
+        } catch (CmdLineParser.OptionException e) {
+            log.error("CLI error: ", e);
+            printImportUsage();
+        }
+        if (parser.getRemainingArgs().length != 1) {
+            printImportUsage();
+        }
+
+        final String vdbpath = parser.getOptionValue(dbPath);
+        if (vdbpath != null) {
+            Configuration.put(DefaultConfSettings.DB_PATH, vdbpath);
+        }
+
+        try {
+            Storage.instance().init();
+            try {
+                new StorageImporter().importTransactions(Paths.get(parser.getRemainingArgs()[0]));
+            } finally {
+                Storage.instance().shutdown();
+            }
+        } catch (final Exception e) {
+            log.error("Exception during the import: ", e);
+            System.exit(-1);
+        }
+    }
+
+    private static void printImportUsage() {
+        log.info("Usage: java -jar {}-{}.jar import [{--db-path} '<directory>'] <export, or file of transaction trytes, one per line, may be gzipped>", NAME, VERSION);
+        System.exit(2);
+    }
+
     private static void printUsage() {
         log.info("Usage: java -jar {}-{}.jar " +
                 "[{-p,--port} 14265] " +
@@ -156,6 +223,10 @@ public class IRI {
                 "[{-d,--debug}] " +
                 "[{-e,--experimental}]" +
                 "[{--remote}]" +
+                "[{--db-path} '<directory>']" +
+                "[{--db-flush-interval} 5]" +
+                "[{--db-flush-threshold} 64]" +
+                "[{--db-journal-sync-interval} 20]" +
                 // + "[{-t,--testnet} false] " // -> TBDiscussed (!)
                 "[{-n,--neighbors} '<list of neighbors>'] ", NAME, VERSION);
         System.exit(0);
@@ -1,12 +1,8 @@
 package com.iota.iri;
 
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.iota.iri.hash.Curl;
@@ -15,10 +11,14 @@ import com.iota.iri.model.Hash;
 import com.iota.iri.model.Transaction;
 import com.iota.iri.service.storage.Storage;
 import com.iota.iri.service.storage.StorageAddresses;
+import com.iota.iri.service.storage.StorageLedger;
 import com.iota.iri.service.storage.StorageScratchpad;
 import com.iota.iri.service.storage.AbstractStorage;
 import com.iota.iri.service.storage.StorageTransactions;
+import com.iota.iri.service.storage.TangleWalker;
+import com.iota.iri.service.storage.TraversalContext;
 import com.iota.iri.utils.Converter;
+import com.iota.iri.utils.LongQueue;
 
 public class Milestone {
 
@@ -32,62 +32,63 @@ public class Milestone {
     public static int latestMilestoneIndex = MILESTONE_START_INDEX;
     public static int latestSolidSubtangleMilestoneIndex = MILESTONE_START_INDEX;
 
-    private static final Set<Long> analyzedMilestoneCandidates = new HashSet<>();
+    private static long numberOfAnalyzedMilestoneCandidates; // The coordinator transactions only get appended, so earlier ones are skipped
     private static final Map<Integer, Hash> milestones = new ConcurrentHashMap<>();
 
     public static void updateLatestMilestone() { // refactor
 
-        for (final Long pointer : StorageAddresses.instance().addressesOf(COORDINATOR)) {
+        final LongQueue milestoneCandidates = new LongQueue();
+        numberOfAnalyzedMilestoneCandidates = StorageAddresses.instance().addressTransactions(StorageAddresses.instance().addressPointer(COORDINATOR.bytes()),
+                numberOfAnalyzedMilestoneCandidates, milestoneCandidates::offer);
+        while (!milestoneCandidates.isEmpty()) {
 
-            if (analyzedMilestoneCandidates.add(pointer)) {
+            final long pointer = milestoneCandidates.poll();
+            final Transaction transaction = StorageTransactions.instance().loadTransaction(pointer);
+            if (transaction.currentIndex == 0) {
 
-                final Transaction transaction = StorageTransactions.instance().loadTransaction(pointer);
-                if (transaction.currentIndex == 0) {
+                final int index = (int) Converter.longValue(transaction.trits(), Transaction.TAG_TRINARY_OFFSET, 15);
+                if (index > latestMilestoneIndex) {
 
-                    final int index = (int) Converter.longValue(transaction.trits(), Transaction.TAG_TRINARY_OFFSET, 15);
-                    if (index > latestMilestoneIndex) {
+                    final Bundle bundle = new Bundle(transaction.bundle);
+                    for (final List<Transaction> bundleTransactions : bundle.getTransactions()) {
 
-                        final Bundle bundle = new Bundle(transaction.bundle);
-                        for (final List<Transaction> bundleTransactions : bundle.getTransactions()) {
+                        if (bundleTransactions.get(0).pointer == transaction.pointer) {
 
-                            if (bundleTransactions.get(0).pointer == transaction.pointer) {
+                            final Transaction transaction2 = StorageTransactions.instance().loadTransaction(transaction.trunkTransactionPointer);
+                            if (transaction2.type == AbstractStorage.FILLED_SLOT
+                                    && transaction.branchTransactionPointer == transaction2.trunkTransactionPointer) {
 
-                                final Transaction transaction2 = StorageTransactions.instance().loadTransaction(transaction.trunkTransactionPointer);
-                                if (transaction2.type == AbstractStorage.FILLED_SLOT
-                                        && transaction.branchTransactionPointer == transaction2.trunkTransactionPointer) {
+                                final int[] trunkTransactionTrits = new int[Transaction.TRUNK_TRANSACTION_TRINARY_SIZE];
+                                Converter.getTrits(transaction.trunkTransaction, trunkTransactionTrits);
+                                final int[] signatureFragmentTrits = Arrays.copyOfRange(transaction.trits(), Transaction.SIGNATURE_MESSAGE_FRAGMENT_TRINARY_OFFSET, Transaction.SIGNATURE_MESSAGE_FRAGMENT_TRINARY_OFFSET + Transaction.SIGNATURE_MESSAGE_FRAGMENT_TRINARY_SIZE);
 
-                                    final int[] trunkTransactionTrits = new int[Transaction.TRUNK_TRANSACTION_TRINARY_SIZE];
-                                    Converter.getTrits(transaction.trunkTransaction, trunkTransactionTrits);
-                                    final int[] signatureFragmentTrits = Arrays.copyOfRange(transaction.trits(), Transaction.SIGNATURE_MESSAGE_FRAGMENT_TRINARY_OFFSET, Transaction.SIGNATURE_MESSAGE_FRAGMENT_TRINARY_OFFSET + Transaction.SIGNATURE_MESSAGE_FRAGMENT_TRINARY_SIZE);
+                                final int[] hash = ISS.address(ISS.digest(Arrays.copyOf(ISS.normalizedBundle(trunkTransactionTrits), ISS.NUMBER_OF_FRAGMENT_CHUNKS), signatureFragmentTrits));
 
-                                    final int[] hash = ISS.address(ISS.digest(Arrays.copyOf(ISS.normalizedBundle(trunkTransactionTrits), ISS.NUMBER_OF_FRAGMENT_CHUNKS), signatureFragmentTrits));
+                                int indexCopy = index;
+                                for (int i = 0; i < 20; i++) {
 
-                                    int indexCopy = index;
-                                    for (int i = 0; i < 20; i++) {
-
-                                        final Curl curl = new Curl();
-                                        if ((indexCopy & 1) == 0) {
-                                            curl.absorb(hash, 0, hash.length);
-                                            curl.absorb(transaction2.trits(), i * Curl.HASH_LENGTH, Curl.HASH_LENGTH);
-                                        } else {
-                                            curl.absorb(transaction2.trits(), i * Curl.HASH_LENGTH, Curl.HASH_LENGTH);
-                                            curl.absorb(hash, 0, hash.length);
-                                        }
-                                        curl.squeeze(hash, 0, hash.length);
-
-                                        indexCopy >>= 1;
+                                    final Curl curl = new Curl();
+                                    if ((indexCopy & 1) == 0) {
+                                        curl.absorb(hash, 0, hash.length);
+                                        curl.absorb(transaction2.trits(), i * Curl.HASH_LENGTH, Curl.HASH_LENGTH);
+                                    } else {
+                                        curl.absorb(transaction2.trits(), i * Curl.HASH_LENGTH, Curl.HASH_LENGTH);
+                                        curl.absorb(hash, 0, hash.length);
                                     }
+                                    curl.squeeze(hash, 0, hash.length);
 
-                                    if ((new Hash(hash)).equals(COORDINATOR)) {
+                                    indexCopy >>= 1;
+                                }
 
-                                        latestMilestone = new Hash(transaction.hash, 0, Transaction.HASH_SIZE);
-                                        latestMilestoneIndex = index;
+                                if ((new Hash(hash)).equals(COORDINATOR)) {
 
-                                        milestones.put(latestMilestoneIndex, latestMilestone);
-                                    }
+                                    latestMilestone = new Hash(transaction.hash, 0, Transaction.HASH_SIZE);
+                                    latestMilestoneIndex = index;
+
+                                    milestones.put(latestMilestoneIndex, latestMilestone);
                                 }
-                                break;
                             }
+                            break;
                         }
                     }
                 }
@@ -95,6 +96,10 @@ public class Milestone {
         }
     }
 
+    public static Hash milestone(final int index) {
+        return milestones.get(index);
+    }
+
     public static void updateLatestSolidSubtangleMilestone() {
 
         for (int milestoneIndex = latestMilestoneIndex; milestoneIndex > latestSolidSubtangleMilestoneIndex; milestoneIndex--) {
@@ -102,35 +107,24 @@ public class Milestone {
             final Hash milestone = milestones.get(milestoneIndex);
             if (milestone != null) {
 
-                boolean solid = true;
-
-                synchronized (StorageScratchpad.instance().getAnalyzedTransactionsFlags()) {
-
-                	StorageScratchpad.instance().clearAnalyzedTransactionsFlags();
+                final boolean solid;
+                try (final TraversalContext traversal = StorageScratchpad.instance().traversalContext()) {
 
-                    final Queue<Long> nonAnalyzedTransactions = new LinkedList<>();
-                    nonAnalyzedTransactions.offer(StorageTransactions.instance().transactionPointer(milestone.bytes()));
-                    Long pointer;
-                    while ((pointer = nonAnalyzedTransactions.poll()) != null) {
-
-                        if (StorageScratchpad.instance().setAnalyzedTransactionFlag(pointer)) {
-
-                            final Transaction transaction2 = StorageTransactions.instance().loadTransaction(pointer);
-                            if (transaction2.type == AbstractStorage.PREFILLED_SLOT) {
-                                solid = false;
-                                break;
-
-                            } else {
-                                nonAnalyzedTransactions.offer(transaction2.trunkTransactionPointer);
-                                nonAnalyzedTransactions.offer(transaction2.branchTransactionPointer);
-                            }
-                        }
-                    }
+                    solid = new TangleWalker(traversal).walkApprovees(transaction -> transaction.type() == AbstractStorage.PREFILLED_SLOT ? TangleWalker.Step.STOP : TangleWalker.Step.DESCEND,
+                            StorageTransactions.instance().transactionPointer(milestone.bytes()));
                 }
 
                 if (solid) {
-                    latestSolidSubtangleMilestone = milestone;
-                    latestSolidSubtangleMilestoneIndex = milestoneIndex;
+
+                    // The solid milestone doesn't move past the ledger, otherwise the balances and the tips would lag behind it
+                    final StorageLedger.State ledger = StorageLedger.instance().updateLedger(milestoneIndex);
+                    if (ledger.milestoneIndex >= milestoneIndex) {
+                        latestSolidSubtangleMilestone = milestone;
+                        latestSolidSubtangleMilestoneIndex = milestoneIndex;
+                    } else if (ledger.milestoneIndex > latestSolidSubtangleMilestoneIndex) {
+                        latestSolidSubtangleMilestone = ledger.milestone;
+                        latestSolidSubtangleMilestoneIndex = ledger.milestoneIndex;
+                    }
                     return;
                 }
             }
@@ -1,31 +1,22 @@
 package com.iota.iri;
 
-import com.iota.iri.service.Node;
-
-import java.net.DatagramPacket;
 import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Neighbor {
 
     private final InetSocketAddress address;
     
-    private int numberOfAllTransactions;
-    private int numberOfNewTransactions;
-    private int numberOfInvalidTransactions;
+    private final AtomicInteger numberOfAllTransactions = new AtomicInteger();
+    private final AtomicInteger numberOfNewTransactions = new AtomicInteger();
+    private final AtomicInteger numberOfInvalidTransactions = new AtomicInteger();
+    private final AtomicInteger numberOfDuplicateTransactions = new AtomicInteger(); // recently seen, neither hashed nor stored again
+    private final AtomicInteger numberOfHashedTransactions = new AtomicInteger();
 
     public Neighbor(final InetSocketAddress address) {
         this.address = address;
     }
 
-    public void send(final DatagramPacket packet) {
-        try {
-            packet.setSocketAddress(address);
-            Node.instance().send(packet);
-        } catch (final Exception e) {
-        	// ignore
-        }
-    }
-    
     @Override
     public boolean equals(final Object obj) {
     	if (this == obj) {
@@ -47,26 +38,42 @@ public class Neighbor {
 	}
     
     public void incAllTransactions() {
-    	numberOfAllTransactions++;
+    	numberOfAllTransactions.incrementAndGet();
     }
     
     public void incNewTransactions() {
-    	numberOfNewTransactions++;
+    	numberOfNewTransactions.incrementAndGet();
     }
     
     public void incInvalidTransactions() {
-    	numberOfInvalidTransactions++;
+    	numberOfInvalidTransactions.incrementAndGet();
+    }
+    
+    public void incDuplicateTransactions() {
+    	numberOfDuplicateTransactions.incrementAndGet();
+    }
+    
+    public void incHashedTransactions() {
+    	numberOfHashedTransactions.incrementAndGet();
     }
     
     public int getNumberOfAllTransactions() {
-		return numberOfAllTransactions;
+		return numberOfAllTransactions.get();
 	}
     
     public int getNumberOfInvalidTransactions() {
-		return numberOfInvalidTransactions;
+		return numberOfInvalidTransactions.get();
 	}
     
     public int getNumberOfNewTransactions() {
-		return numberOfNewTransactions;
+		return numberOfNewTransactions.get();
+	}
+    
+    public int getNumberOfDuplicateTransactions() {
+		return numberOfDuplicateTransactions.get();
+	}
+    
+    public int getNumberOfHashedTransactions() {
+		return numberOfHashedTransactions.get();
 	}
 }
@@ -26,6 +26,10 @@ public class Configuration {
         REMOTEAPILIMIT,
         NEIGHBORS,
         DEBUG,
+        DB_PATH, // directory of the *.iri storage files
+        DB_FLUSH_INTERVAL, // seconds a write may wait before being forced to disk
+        DB_FLUSH_THRESHOLD, // megabytes of writes forced to disk without waiting for the interval
+        DB_JOURNAL_SYNC_INTERVAL, // milliseconds between syncs of the journal, 0 to sync each stored batch
         EXPERIMENTAL // experimental features.
     }
 
@@ -39,6 +43,10 @@ public class Configuration {
         conf.put(DefaultConfSettings.HEADLESS.name(), "false");
         conf.put(DefaultConfSettings.DEBUG.name(), "false");
         conf.put(DefaultConfSettings.REMOTEAPILIMIT.name(), "");
+        conf.put(DefaultConfSettings.DB_PATH.name(), "");
+        conf.put(DefaultConfSettings.DB_FLUSH_INTERVAL.name(), "5");
+        conf.put(DefaultConfSettings.DB_FLUSH_THRESHOLD.name(), "64");
+        conf.put(DefaultConfSettings.DB_JOURNAL_SYNC_INTERVAL.name(), "20");
         conf.put(DefaultConfSettings.EXPERIMENTAL.name(), "false");
     }
 
@@ -0,0 +1,105 @@
+package com.iota.iri.hash;
+
+/**
+ * Curl over up to 64 independent inputs at once.
+ *
+ * Uses the same bit-sliced state as {@link PearlDiver}: bit i of the low and high words of a trit
+ * belongs to instance i, with 0 encoded as (1, 1), 1 as (0, 1) and -1 as (1, 0).
+ * All the instances must absorb and squeeze the same number of trits.
+ */
+public class BatchCurl {
+
+    public static final int MAX_NUMBER_OF_INSTANCES = Long.SIZE;
+
+    private static final int HASH_LENGTH = Curl.HASH_LENGTH;
+    private static final int STATE_LENGTH = 3 * HASH_LENGTH;
+    private static final int NUMBER_OF_ROUNDS = 27;
+
+    private final long[] stateLow = new long[STATE_LENGTH], stateHigh = new long[STATE_LENGTH];
+    private final long[] scratchpadLow = new long[STATE_LENGTH], scratchpadHigh = new long[STATE_LENGTH];
+
+    public BatchCurl() {
+        reset();
+    }
+
+    public void absorb(final int[][] trits, final int numberOfInstances, int offset, int length) {
+
+        do {
+            final int blockLength = length < HASH_LENGTH ? length : HASH_LENGTH;
+            for (int i = 0; i < blockLength; i++) {
+
+                long low = -1L, high = -1L;
+                for (int instance = 0; instance < numberOfInstances; instance++) {
+
+                    switch (trits[instance][offset + i]) {
+
+                        case 1: {
+                            low &= ~(1L << instance);
+                        } break;
+
+                        case -1: {
+                            high &= ~(1L << instance);
+                        } break;
+
+                        default:
+                    }
+                }
+                stateLow[i] = low;
+                stateHigh[i] = high;
+            }
+            transform();
+            offset += HASH_LENGTH;
+        } while ((length -= HASH_LENGTH) > 0);
+    }
+
+    public void squeeze(final int[][] trits, final int numberOfInstances, int offset, int length) {
+
+        do {
+            final int blockLength = length < HASH_LENGTH ? length : HASH_LENGTH;
+            for (int i = 0; i < blockLength; i++) {
+
+                final long low = stateLow[i], high = stateHigh[i];
+                for (int instance = 0; instance < numberOfInstances; instance++) {
+
+                    if ((low & (1L << instance)) == 0) {
+                        trits[instance][offset + i] = 1;
+                    } else if ((high & (1L << instance)) == 0) {
+                        trits[instance][offset + i] = -1;
+                    } else {
+                        trits[instance][offset + i] = 0;
+                    }
+                }
+            }
+            transform();
+            offset += HASH_LENGTH;
+        } while ((length -= HASH_LENGTH) > 0);
+    }
+
+    public void reset() {
+        for (int stateIndex = 0; stateIndex < STATE_LENGTH; stateIndex++) {
+            stateLow[stateIndex] = -1L;
+            stateHigh[stateIndex] = -1L;
+        }
+    }
+
+    private void transform() {
+
+        int scratchpadIndex = 0;
+        for (int round = NUMBER_OF_ROUNDS; round-- > 0; ) {
+
+            System.arraycopy(stateLow, 0, scratchpadLow, 0, STATE_LENGTH);
+            System.arraycopy(stateHigh, 0, scratchpadHigh, 0, STATE_LENGTH);
+
+            for (int stateIndex = 0; stateIndex < STATE_LENGTH; stateIndex++) {
+
+                final long alpha = scratchpadLow[scratchpadIndex];
+                final long beta = scratchpadHigh[scratchpadIndex];
+                final long gamma = scratchpadHigh[scratchpadIndex += (scratchpadIndex < 365 ? 364 : -365)];
+                final long delta = (alpha | (~gamma)) & (scratchpadLow[scratchpadIndex] ^ beta);
+
+                stateLow[stateIndex] = ~delta;
+                stateHigh[stateIndex] = (alpha ^ gamma) | delta;
+            }
+        }
+    }
+}
@@ -14,7 +14,15 @@ public class Curl {
     private static final int NUMBER_OF_ROUNDS = 27;
     private static final int[] TRUTH_TABLE = {1, 0, -1, 1, -1, 0, -1, 1, 0};
 
-    private final int[] state = new int[STATE_LENGTH];
+    private static final int[] INDICES = new int[STATE_LENGTH + 1]; // Every round reads the state in the same order
+    static {
+        for (int i = 0; i < STATE_LENGTH; i++) {
+            INDICES[i + 1] = INDICES[i] < 365 ? INDICES[i] + 364 : INDICES[i] - 365;
+        }
+    }
+
+    private int[] state = new int[STATE_LENGTH];
+    private int[] scratchpad = new int[STATE_LENGTH];
     
     public void absorb(final int[] trits, int offset, int length) {
 
@@ -37,12 +45,12 @@ public class Curl {
 
     private void transform() {
 
-        final int[] scratchpad = new int[STATE_LENGTH];
-        int scratchpadIndex = 0;
         for (int round = 0; round < NUMBER_OF_ROUNDS; round++) {
-            System.arraycopy(state, 0, scratchpad, 0, STATE_LENGTH);
+            final int[] previousState = state; // The rounds alternate between the two buffers instead of copying
+            state = scratchpad;
+            scratchpad = previousState;
             for (int stateIndex = 0; stateIndex < STATE_LENGTH; stateIndex++) {
-                state[stateIndex] = TRUTH_TABLE[scratchpad[scratchpadIndex] + scratchpad[scratchpadIndex += (scratchpadIndex < 365 ? 364 : -365)] * 3 + 4];
+                state[stateIndex] = TRUTH_TABLE[previousState[INDICES[stateIndex]] + previousState[INDICES[stateIndex + 1]] * 3 + 4];
             }
         }
     }
@@ -15,18 +15,19 @@ public class Transaction {
     public static final int TYPE_OFFSET = 0, TYPE_SIZE = Byte.BYTES;
     public static final int HASH_OFFSET = TYPE_OFFSET + TYPE_SIZE + ((Long.BYTES - (TYPE_SIZE & (Long.BYTES - 1))) & (Long.BYTES - 1)), HASH_SIZE = 46;
 
-    private static final int BYTES_OFFSET = HASH_OFFSET + HASH_SIZE + ((Long.BYTES - (HASH_SIZE & (Long.BYTES - 1))) & (Long.BYTES - 1)), BYTES_SIZE = SIZE;
+    public static final int BYTES_OFFSET = HASH_OFFSET + HASH_SIZE + ((Long.BYTES - (HASH_SIZE & (Long.BYTES - 1))) & (Long.BYTES - 1)), BYTES_SIZE = SIZE;
 
     public static final int ADDRESS_OFFSET = BYTES_OFFSET + BYTES_SIZE + ((Long.BYTES - (BYTES_SIZE & (Long.BYTES - 1))) & (Long.BYTES - 1)), ADDRESS_SIZE = 49;
     public static final int VALUE_OFFSET = ADDRESS_OFFSET + ADDRESS_SIZE + ((Long.BYTES - (ADDRESS_SIZE & (Long.BYTES - 1))) & (Long.BYTES - 1)), VALUE_SIZE = Long.BYTES;
     public static final int TAG_OFFSET = VALUE_OFFSET + VALUE_SIZE + ((Long.BYTES - (VALUE_SIZE & (Long.BYTES - 1))) & (Long.BYTES - 1)), TAG_SIZE = 17;
-    private static final int CURRENT_INDEX_OFFSET = TAG_OFFSET + TAG_SIZE + ((Long.BYTES - (TAG_SIZE & (Long.BYTES - 1))) & (Long.BYTES - 1)), CURRENT_INDEX_SIZE = Long.BYTES;
+    static final int CURRENT_INDEX_OFFSET = TAG_OFFSET + TAG_SIZE + ((Long.BYTES - (TAG_SIZE & (Long.BYTES - 1))) & (Long.BYTES - 1)), CURRENT_INDEX_SIZE = Long.BYTES;
     private static final int LAST_INDEX_OFFSET = CURRENT_INDEX_OFFSET + CURRENT_INDEX_SIZE + ((Long.BYTES - (CURRENT_INDEX_SIZE & (Long.BYTES - 1))) & (Long.BYTES - 1)), LAST_INDEX_SIZE = Long.BYTES;
     public static final int BUNDLE_OFFSET = LAST_INDEX_OFFSET + LAST_INDEX_SIZE + ((Long.BYTES - (LAST_INDEX_SIZE & (Long.BYTES - 1))) & (Long.BYTES - 1)), BUNDLE_SIZE = 49;
-    private static final int TRUNK_TRANSACTION_OFFSET = BUNDLE_OFFSET + BUNDLE_SIZE + ((Long.BYTES - (BUNDLE_SIZE & (Long.BYTES - 1))) & (Long.BYTES - 1)), TRUNK_TRANSACTION_SIZE = HASH_SIZE;
-    private static final int BRANCH_TRANSACTION_OFFSET = TRUNK_TRANSACTION_OFFSET + TRUNK_TRANSACTION_SIZE + ((Long.BYTES - (TRUNK_TRANSACTION_SIZE & (Long.BYTES - 1))) & (Long.BYTES - 1)), BRANCH_TRANSACTION_SIZE = HASH_SIZE;
+    public static final int TRUNK_TRANSACTION_OFFSET = BUNDLE_OFFSET + BUNDLE_SIZE + ((Long.BYTES - (BUNDLE_SIZE & (Long.BYTES - 1))) & (Long.BYTES - 1)), TRUNK_TRANSACTION_SIZE = HASH_SIZE;
+    public static final int BRANCH_TRANSACTION_OFFSET = TRUNK_TRANSACTION_OFFSET + TRUNK_TRANSACTION_SIZE + ((Long.BYTES - (TRUNK_TRANSACTION_SIZE & (Long.BYTES - 1))) & (Long.BYTES - 1)), BRANCH_TRANSACTION_SIZE = HASH_SIZE;
 
     public static final int VALIDITY_OFFSET = BRANCH_TRANSACTION_OFFSET + BRANCH_TRANSACTION_SIZE + ((Long.BYTES - (BRANCH_TRANSACTION_SIZE & (Long.BYTES - 1))) & (Long.BYTES - 1)), VALIDITY_SIZE = 1;
+    public static final int CONFIRMING_MILESTONE_INDEX_OFFSET = VALIDITY_OFFSET + VALIDITY_SIZE + ((Long.BYTES - (VALIDITY_SIZE & (Long.BYTES - 1))) & (Long.BYTES - 1)), CONFIRMING_MILESTONE_INDEX_SIZE = Long.BYTES; // 0 until the ledger applies the first milestone confirming the transaction
 
     public static final long SUPPLY = 2779530283277761L; // = (3^33 - 1) / 2
 
@@ -73,14 +74,17 @@ public class Transaction {
     public int weightMagnitude;
 
     public Transaction(final int[] trits) {
+        this(trits, hashTrits(trits, new Curl()));
+    }
+
+    /**
+     * @param hashTrits Curl hash of the trits, e.g. computed for a whole batch by {@link com.iota.iri.hash.BatchCurl}
+     */
+    public Transaction(final int[] trits, final int[] hashTrits) {
 
         this.trits = trits;
         bytes = Converter.bytes(trits);
 
-        final Curl curl = new Curl();
-        curl.absorb(trits, 0, TRINARY_SIZE);
-        final int[] hashTrits = new int[Curl.HASH_LENGTH];
-        curl.squeeze(hashTrits, 0, hashTrits.length);
         hash = Arrays.copyOf(Converter.bytes(hashTrits), HASH_SIZE);
 
         address = Converter.bytes(trits, ADDRESS_TRINARY_OFFSET, ADDRESS_TRINARY_SIZE);
@@ -102,9 +106,16 @@ public class Transaction {
     }
 
     public Transaction(final byte[] bytes, final int[] trits, final Curl curl) {
+        this(bytes, trits(bytes, trits), hashTrits(trits, curl));
+    }
+
+    /**
+     * @param trits trits of the bytes, see {@link #trits(byte[], int[])}
+     * @param hashTrits Curl hash of the trits, e.g. computed for a whole batch by {@link com.iota.iri.hash.BatchCurl}
+     */
+    public Transaction(final byte[] bytes, final int[] trits, final int[] hashTrits) {
 
-        this.bytes = Arrays.copyOf(bytes, BYTES_SIZE);
-        Converter.getTrits(this.bytes, this.trits = trits);
+        this.bytes = Arrays.copyOf(bytes, BYTES_SIZE); // The trits are the caller's scratch space, they are recomputed from the bytes on demand
 
         for (int i = VALUE_TRINARY_OFFSET + VALUE_USABLE_TRINARY_SIZE; i < VALUE_TRINARY_OFFSET + VALUE_TRINARY_SIZE; i++) {
 
@@ -113,11 +124,6 @@ public class Transaction {
             }
         }
 
-        curl.reset();
-        curl.absorb(trits, 0, TRINARY_SIZE);
-        final int[] hashTrits = new int[Curl.HASH_LENGTH];
-        curl.squeeze(hashTrits, 0, hashTrits.length);
-
         hash = Converter.bytes(hashTrits);
         if (hash[Hash.SIZE_IN_BYTES - 4] != 0 || hash[Hash.SIZE_IN_BYTES - 3] != 0 || hash[Hash.SIZE_IN_BYTES - 2] != 0 || hash[Hash.SIZE_IN_BYTES - 1] != 0) {
             throw new RuntimeException("Invalid transaction hash");
@@ -187,7 +193,7 @@ public class Transaction {
 
     public static void dump(final byte[] mainBuffer, final byte[] hash, final Transaction transaction) {
 
-        System.arraycopy(new byte[AbstractStorage.CELL_SIZE], 0, mainBuffer, 0, AbstractStorage.CELL_SIZE);
+        Arrays.fill(mainBuffer, 0, AbstractStorage.CELL_SIZE, (byte) 0);
         System.arraycopy(hash, 0, mainBuffer, HASH_OFFSET, HASH_SIZE);
 
         if (transaction == null) {
@@ -198,46 +204,29 @@ public class Transaction {
             System.arraycopy(transaction.bytes, 0, mainBuffer, BYTES_OFFSET, BYTES_SIZE);
             System.arraycopy(transaction.address, 0, mainBuffer, ADDRESS_OFFSET, ADDRESS_SIZE);
             Storage.setValue(mainBuffer, VALUE_OFFSET, transaction.value);
-            final int[] trits = transaction.trits();
-            System.arraycopy(Converter.bytes(trits, TAG_TRINARY_OFFSET, TAG_TRINARY_SIZE), 0, mainBuffer, TAG_OFFSET, TAG_SIZE);
+            System.arraycopy(transaction.tag, 0, mainBuffer, TAG_OFFSET, TAG_SIZE);
             Storage.setValue(mainBuffer, CURRENT_INDEX_OFFSET, transaction.currentIndex);
             Storage.setValue(mainBuffer, LAST_INDEX_OFFSET, transaction.lastIndex);
-            System.arraycopy(Converter.bytes(trits, BUNDLE_TRINARY_OFFSET, BUNDLE_TRINARY_SIZE), 0, mainBuffer, BUNDLE_OFFSET, BUNDLE_SIZE);
+            System.arraycopy(transaction.bundle, 0, mainBuffer, BUNDLE_OFFSET, BUNDLE_SIZE);
             System.arraycopy(transaction.trunkTransaction, 0, mainBuffer, TRUNK_TRANSACTION_OFFSET, TRUNK_TRANSACTION_SIZE);
             System.arraycopy(transaction.branchTransaction, 0, mainBuffer, BRANCH_TRANSACTION_OFFSET, BRANCH_TRANSACTION_SIZE);
-
-            long approvedTransactionPointer = StorageTransactions.instance().transactionPointer(transaction.trunkTransaction);
-            if (approvedTransactionPointer == 0) {
-                Storage.approvedTransactionsToStore[Storage.numberOfApprovedTransactionsToStore++] = transaction.trunkTransaction;
-            } else {
-
-                if (approvedTransactionPointer < 0) {
-                    approvedTransactionPointer = -approvedTransactionPointer;
-                }
-                final long index = (approvedTransactionPointer - (AbstractStorage.CELLS_OFFSET - AbstractStorage.SUPER_GROUPS_OFFSET)) >> 11;
-                StorageTransactions.instance().transactionsTipsFlags().put(
-                		(int)(index >> 3), 
-                		(byte)(StorageTransactions.instance().transactionsTipsFlags().get((int)(index >> 3)) & (0xFF ^ (1 << (index & 7)))));
-            }
-            if (!Arrays.equals(transaction.branchTransaction, transaction.trunkTransaction)) {
-
-                approvedTransactionPointer = StorageTransactions.instance().transactionPointer(transaction.branchTransaction);
-                if (approvedTransactionPointer == 0) {
-                    Storage.approvedTransactionsToStore[Storage.numberOfApprovedTransactionsToStore++] = transaction.branchTransaction;
-                } else {
-
-                    if (approvedTransactionPointer < 0) {
-                        approvedTransactionPointer = -approvedTransactionPointer;
-                    }
-                    final long index = (approvedTransactionPointer - (Storage.CELLS_OFFSET - Storage.SUPER_GROUPS_OFFSET)) >> 11;
-                    StorageTransactions.instance().transactionsTipsFlags().put(
-                    		(int) (index >> 3), 
-                    		(byte) (StorageTransactions.instance().transactionsTipsFlags().get((int) (index >> 3)) & (0xFF ^ (1 << (index & 7)))));
-                }
-            }
         }
     }
     
+    public static int[] trits(final byte[] bytes, final int[] trits) {
+        Converter.getTrits(bytes, trits);
+        return trits;
+    }
+
+    private static int[] hashTrits(final int[] trits, final Curl curl) {
+
+        curl.reset();
+        curl.absorb(trits, 0, TRINARY_SIZE);
+        final int[] hashTrits = new int[Curl.HASH_LENGTH];
+        curl.squeeze(hashTrits, 0, hashTrits.length);
+        return hashTrits;
+    }
+
     public long value() {
 		return value;
 	}
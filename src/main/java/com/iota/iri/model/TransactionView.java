@@ -0,0 +1,121 @@
+package com.iota.iri.model;
+
+import java.nio.ByteBuffer;
+
+import com.iota.iri.service.storage.AbstractStorage;
+import com.iota.iri.service.storage.StorageTransactions;
+
+/**
+ * Reusable read-only view of a stored transaction.
+ *
+ * Unlike {@link Transaction} nothing is copied out of the mapped cell: every accessor reads
+ * the field directly from the storage chunk, so a single instance can be moved
+ * from pointer to pointer during a tangle walk without allocating.
+ * The type is read once by {@link #at(long)} with the transactions locked: a cell seen as filled was completely
+ * written before, so its other fields are read without locking. A prefilled cell stays prefilled for the view.
+ * An instance must not be shared between threads.
+ */
+public class TransactionView {
+
+    private ByteBuffer chunk;
+    private int offset;
+    private long pointer;
+    private int type;
+
+    public TransactionView at(final long pointer) {
+
+        type = StorageTransactions.instance().transactionType(pointer);
+        chunk = StorageTransactions.instance().transactionsChunk(pointer);
+        offset = (int)(pointer & (AbstractStorage.CHUNK_SIZE - 1));
+        this.pointer = pointer;
+        return this;
+    }
+
+    public long pointer() {
+        return pointer;
+    }
+
+    public int type() {
+        return type;
+    }
+
+    public byte[] hash(final byte[] hash) {
+
+        for (int i = 0; i < Transaction.HASH_SIZE; i++) {
+            hash[i] = chunk.get(offset + Transaction.HASH_OFFSET + i);
+        }
+        return hash;
+    }
+
+    public Hash hash() {
+        return new Hash(hash(new byte[Transaction.HASH_SIZE]), 0, Transaction.HASH_SIZE);
+    }
+
+    public boolean hasHash(final byte[] hash) {
+
+        for (int i = 0; i < Transaction.HASH_SIZE; i++) {
+            if (chunk.get(offset + Transaction.HASH_OFFSET + i) != hash[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean hasBytes(final ByteBuffer bytes) {
+
+        for (int i = 0; i < Transaction.SIZE; i++) {
+            if (chunk.get(offset + Transaction.BYTES_OFFSET + i) != bytes.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Hash address() {
+
+        final byte[] address = new byte[Transaction.ADDRESS_SIZE];
+        for (int i = 0; i < Transaction.ADDRESS_SIZE; i++) {
+            address[i] = chunk.get(offset + Transaction.ADDRESS_OFFSET + i);
+        }
+        return new Hash(address, 0, Transaction.ADDRESS_SIZE);
+    }
+
+    public long value() {
+        return AbstractStorage.value(chunk, offset + Transaction.VALUE_OFFSET);
+    }
+
+    public long currentIndex() {
+        return AbstractStorage.value(chunk, offset + Transaction.CURRENT_INDEX_OFFSET);
+    }
+
+    public byte[] bundle() {
+
+        final byte[] bundle = new byte[Transaction.BUNDLE_SIZE];
+        for (int i = 0; i < Transaction.BUNDLE_SIZE; i++) {
+            bundle[i] = chunk.get(offset + Transaction.BUNDLE_OFFSET + i);
+        }
+        return bundle;
+    }
+
+    public long trunkTransactionPointer() {
+        return approvedTransactionPointer(Transaction.TRUNK_TRANSACTION_OFFSET);
+    }
+
+    public long branchTransactionPointer() {
+        return approvedTransactionPointer(Transaction.BRANCH_TRANSACTION_OFFSET);
+    }
+
+    public int validity() {
+        return chunk.get(offset + Transaction.VALIDITY_OFFSET);
+    }
+
+    public int confirmingMilestoneIndex() {
+        return (int)AbstractStorage.value(chunk, offset + Transaction.CONFIRMING_MILESTONE_INDEX_OFFSET);
+    }
+
+    private long approvedTransactionPointer(final int hashOffset) {
+
+        final long approvedTransactionPointer = StorageTransactions.instance().transactionPointer(chunk, offset + hashOffset);
+        return approvedTransactionPointer < 0 ? -approvedTransactionPointer : approvedTransactionPointer;
+    }
+}
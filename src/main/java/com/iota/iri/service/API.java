@@ -10,15 +10,13 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -35,20 +33,26 @@ import com.google.gson.GsonBuilder;
 import com.iota.iri.IRI;
 import com.iota.iri.Milestone;
 import com.iota.iri.Neighbor;
-import com.iota.iri.Snapshot;
 import com.iota.iri.conf.Configuration;
 import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.hash.BatchCurl;
 import com.iota.iri.hash.Curl;
 import com.iota.iri.hash.PearlDiver;
 import com.iota.iri.model.Hash;
 import com.iota.iri.model.Transaction;
+import com.iota.iri.model.TransactionView;
 import com.iota.iri.service.storage.Storage;
 import com.iota.iri.service.storage.StorageAddresses;
 import com.iota.iri.service.storage.StorageApprovers;
 import com.iota.iri.service.storage.StorageBundle;
+import com.iota.iri.service.storage.StorageExporter;
+import com.iota.iri.service.storage.StorageFlusher;
+import com.iota.iri.service.storage.StorageLedger;
 import com.iota.iri.service.storage.StorageScratchpad;
 import com.iota.iri.service.storage.StorageTags;
 import com.iota.iri.service.storage.StorageTransactions;
+import com.iota.iri.service.storage.TangleWalker;
+import com.iota.iri.service.storage.TraversalContext;
 import com.iota.iri.utils.Converter;
 
 import io.undertow.Undertow;
@@ -97,11 +101,15 @@ public class API {
 
         final long beginningTime = System.currentTimeMillis();
         final String body = IOUtils.toString(cis, StandardCharsets.UTF_8);
-        final AbstractResponse response = process(body, exchange.getSourceAddress());
-        sendResponse(exchange, response, beginningTime);
+        final AbstractResponse response = process(body, exchange);
+        if (response != null) { // Streaming commands have already answered
+            sendResponse(exchange, response, beginningTime);
+        }
     }
 
-    private AbstractResponse process(final String requestString, InetSocketAddress sourceAddress) throws UnsupportedEncodingException {
+    private AbstractResponse process(final String requestString, final HttpServerExchange exchange) throws UnsupportedEncodingException {
+
+        final InetSocketAddress sourceAddress = exchange.getSourceAddress();
 
         try {
 
@@ -142,6 +150,17 @@ public class API {
                     log.debug("Invoking 'broadcastTransactions' with {}", trytes);
                     return broadcastTransactionStatement(trytes);
                 }
+                case "exportTransactions": {
+                    if (!sourceAddress.getAddress().isLoopbackAddress()) {
+                        // The export streams the whole tangle and holds a worker thread while doing so
+                        return AccessLimitedResponse.create("COMMAND " + command + " is only available from localhost");
+                    }
+                    final Double fromMilestoneIndex = (Double) request.get("fromMilestoneIndex");
+                    final Double toMilestoneIndex = (Double) request.get("toMilestoneIndex");
+                    exportTransactionsStatement(exchange, fromMilestoneIndex == null ? 0 : fromMilestoneIndex.intValue(),
+                            toMilestoneIndex == null ? Integer.MAX_VALUE : toMilestoneIndex.intValue());
+                    return null;
+                }
                 case "findTransactions": {
                     return findTransactionStatement(request);
                 }
@@ -173,8 +192,9 @@ public class API {
                             Runtime.getRuntime().totalMemory(), Milestone.latestMilestone, Milestone.latestMilestoneIndex,
                             Milestone.latestSolidSubtangleMilestone, Milestone.latestSolidSubtangleMilestoneIndex,
                             Node.instance().howManyNeighbors(), Node.instance().queuedTransactionsSize(),
-                            System.currentTimeMillis(), StorageTransactions.instance().tips().size(),
-                            StorageScratchpad.instance().getNumberOfTransactionsToRequest());
+                            System.currentTimeMillis(), StorageTransactions.instance().numberOfTips(),
+                            StorageScratchpad.instance().getNumberOfTransactionsToRequest(),
+                            StorageFlusher.instance().flushLag(), StorageFlusher.instance().numberOfUnflushedBytes());
                 }
                 case "getTips": {
                     return getTipsStatement();
@@ -261,13 +281,41 @@ public class API {
     }
 
     private AbstractResponse storeTransactionStatement(final List<String> trys) {
-        for (final String trytes : trys) {
-            final Transaction transaction = new Transaction(Converter.trits(trytes));
-            StorageTransactions.instance().storeTransaction(transaction.hash, transaction, false);
-        }
+        StorageTransactions.instance().storeTransactions(transactions(trys));
         return AbstractResponse.createEmptyResponse();
     }
 
+    /**
+     * Hashes the transactions in batches of {@link BatchCurl#MAX_NUMBER_OF_INSTANCES}.
+     */
+    private static List<Transaction> transactions(final List<String> trys) {
+
+        final List<Transaction> transactions = new ArrayList<>(trys.size());
+
+        final BatchCurl curl = new BatchCurl();
+        final int[][] batchTrits = new int[BatchCurl.MAX_NUMBER_OF_INSTANCES][];
+        final int[][] batchHashTrits = new int[BatchCurl.MAX_NUMBER_OF_INSTANCES][Curl.HASH_LENGTH];
+        for (int offset = 0; offset < trys.size(); offset += batchTrits.length) {
+
+            final int batchSize = Math.min(batchTrits.length, trys.size() - offset);
+            for (int i = 0; i < batchSize; i++) {
+                batchTrits[i] = Converter.trits(trys.get(offset + i));
+                if (batchTrits[i].length != Transaction.TRINARY_SIZE) {
+                    throw new RuntimeException("Invalid transaction trytes length: " + trys.get(offset + i).length());
+                }
+            }
+
+            curl.reset();
+            curl.absorb(batchTrits, batchSize, 0, Transaction.TRINARY_SIZE);
+            curl.squeeze(batchHashTrits, batchSize, 0, Curl.HASH_LENGTH);
+
+            for (int i = 0; i < batchSize; i++) {
+                transactions.add(new Transaction(batchTrits[i], batchHashTrits[i]));
+            }
+        }
+        return transactions;
+    }
+
     private AbstractResponse getNeighborsStatement() {
         return GetNeighborsResponse.create(Node.instance().getNeighbors());
     }
@@ -277,54 +325,77 @@ public class API {
         final List<Hash> transactions = trans.stream().map(s -> new Hash(s)).collect(Collectors.toList());
         final List<Hash> tips = tps.stream().map(s -> new Hash(s)).collect(Collectors.toList());
 
-        int numberOfNonMetTransactions = transactions.size();
-        final boolean[] inclusionStates = new boolean[numberOfNonMetTransactions];
+        final AtomicInteger numberOfNonMetTransactions = new AtomicInteger(transactions.size());
+        final boolean[] inclusionStates = new boolean[transactions.size()];
 
-        synchronized (StorageScratchpad.instance().getAnalyzedTransactionsFlags()) {
+        final StorageLedger.State ledger = StorageLedger.instance().state();
+        final TransactionView transaction = new TransactionView();
 
-            StorageScratchpad.instance().clearAnalyzedTransactionsFlags();
+        final int[] confirmingMilestoneIndexes = new int[transactions.size()];
+        for (int i = 0; i < confirmingMilestoneIndexes.length; i++) {
 
-            final Queue<Long> nonAnalyzedTransactions = new LinkedList<>();
-            for (final Hash tip : tips) {
+            final long pointer = StorageTransactions.instance().transactionPointer(transactions.get(i).bytes());
+            if (pointer > 0 && ledger.confirms(transaction.at(pointer))) {
+                confirmingMilestoneIndexes[i] = transaction.confirmingMilestoneIndex();
+            }
+        }
+
+        final long[] nonAnalyzedTips = new long[tips.size()];
+        int numberOfNonAnalyzedTips = 0;
+        for (final Hash tip : tips) {
 
-                final long pointer = StorageTransactions.instance().transactionPointer(tip.bytes());
-                if (pointer <= 0) {
-                    return ErrorResponse.create("One of the tips absents");
+            final long pointer = StorageTransactions.instance().transactionPointer(tip.bytes());
+            if (pointer <= 0) {
+                return ErrorResponse.create("One of the tips absents");
+            }
+
+            // A confirmed milestone approves exactly the transactions stamped with its index or a lower one
+            final int tipMilestoneIndex = transaction.at(pointer).confirmingMilestoneIndex();
+            if (ledger.confirms(transaction) && tip.equals(Milestone.milestone(tipMilestoneIndex))) {
+
+                for (int i = 0; i < inclusionStates.length; i++) {
+
+                    if (!inclusionStates[i] && confirmingMilestoneIndexes[i] > 0 && confirmingMilestoneIndexes[i] <= tipMilestoneIndex) {
+                        inclusionStates[i] = true;
+                        numberOfNonMetTransactions.decrementAndGet();
+                    }
                 }
-                nonAnalyzedTransactions.offer(pointer);
+            } else {
+                nonAnalyzedTips[numberOfNonAnalyzedTips++] = pointer;
             }
+        }
 
-            {
-                Long pointer;
-                MAIN_LOOP:
-                while ((pointer = nonAnalyzedTransactions.poll()) != null) {
+        if (numberOfNonMetTransactions.get() <= 0 || numberOfNonAnalyzedTips == 0) {
+            return GetInclusionStatesResponse.create(inclusionStates);
+        }
 
-                    if (StorageScratchpad.instance().setAnalyzedTransactionFlag(pointer)) {
+        try (final TraversalContext traversal = StorageScratchpad.instance().traversalContext()) {
 
-                        final Transaction transaction = StorageTransactions.instance().loadTransaction(pointer);
-                        if (transaction.type == Storage.PREFILLED_SLOT) {
-                            return ErrorResponse.create("The subtangle is not solid");
-                        } else {
+            final boolean solid = new TangleWalker(traversal).walkApprovees(analyzedTransaction -> {
 
-                            final Hash transactionHash = new Hash(transaction.hash, 0, Transaction.HASH_SIZE);
-                            for (int i = 0; i < inclusionStates.length; i++) {
+                if (analyzedTransaction.type() == Storage.PREFILLED_SLOT) {
+                    return TangleWalker.Step.STOP;
+                }
+
+                for (int i = 0; i < inclusionStates.length; i++) {
 
-                                if (!inclusionStates[i] && transactionHash.equals(transactions.get(i))) {
+                    if (!inclusionStates[i] && analyzedTransaction.hasHash(transactions.get(i).bytes())) {
 
-                                    inclusionStates[i] = true;
+                        inclusionStates[i] = true;
 
-                                    if (--numberOfNonMetTransactions <= 0) {
-                                        break MAIN_LOOP;
-                                    }
-                                }
-                            }
-                            nonAnalyzedTransactions.offer(transaction.trunkTransactionPointer);
-                            nonAnalyzedTransactions.offer(transaction.branchTransactionPointer);
+                        if (numberOfNonMetTransactions.decrementAndGet() <= 0) {
+                            return TangleWalker.Step.STOP;
                         }
                     }
                 }
-                return GetInclusionStatesResponse.create(inclusionStates);
+                return TangleWalker.Step.DESCEND;
+
+            }, Arrays.copyOf(nonAnalyzedTips, numberOfNonAnalyzedTips));
+
+            if (!solid && numberOfNonMetTransactions.get() > 0) {
+                return ErrorResponse.create("The subtangle is not solid");
             }
+            return GetInclusionStatesResponse.create(inclusionStates);
         }
     }
 
@@ -396,8 +467,7 @@ public class API {
     }
 
     private AbstractResponse broadcastTransactionStatement(final List<String> trytes2) {
-        for (final String tryte : trytes2) {
-            final Transaction transaction = new Transaction(Converter.trits(tryte));
+        for (final Transaction transaction : transactions(trytes2)) {
             transaction.weightMagnitude = Curl.HASH_LENGTH;
             Node.instance().broadcast(transaction);
         }
@@ -413,47 +483,12 @@ public class API {
         final List<Hash> addresses = addrss.stream().map(address -> (new Hash(address)))
                 .collect(Collectors.toCollection(LinkedList::new));
 
-        final Map<Hash, Long> balances = new HashMap<>();
-        for (final Hash address : addresses) {
-            balances.put(address,
-                    Snapshot.initialState.containsKey(address) ? Snapshot.initialState.get(address) : Long.valueOf(0));
-        }
-
-        final Hash milestone = Milestone.latestSolidSubtangleMilestone;
-        final int milestoneIndex = Milestone.latestSolidSubtangleMilestoneIndex;
-
-        synchronized (StorageScratchpad.instance().getAnalyzedTransactionsFlags()) {
-
-            StorageScratchpad.instance().clearAnalyzedTransactionsFlags();
-
-            final Queue<Long> nonAnalyzedTransactions = new LinkedList<>(
-                    Collections.singleton(StorageTransactions.instance().transactionPointer(milestone.bytes())));
-            Long pointer;
-            while ((pointer = nonAnalyzedTransactions.poll()) != null) {
-
-                if (StorageScratchpad.instance().setAnalyzedTransactionFlag(pointer)) {
-
-                    final Transaction transaction = StorageTransactions.instance().loadTransaction(pointer);
-
-                    if (transaction.value != 0) {
-
-                        final Hash address = new Hash(transaction.address, 0, Transaction.ADDRESS_SIZE);
-                        final Long balance = balances.get(address);
-                        if (balance != null) {
+        final StorageLedger.State ledger = StorageLedger.instance().state();
 
-                            balances.put(address, balance + transaction.value);
-                        }
-                    }
-                    nonAnalyzedTransactions.offer(transaction.trunkTransactionPointer);
-                    nonAnalyzedTransactions.offer(transaction.branchTransactionPointer);
-                }
-            }
-        }
-
-        final List<String> elements = addresses.stream().map(address -> balances.get(address).toString())
+        final List<String> elements = addresses.stream().map(address -> Long.toString(ledger.balance(address)))
                 .collect(Collectors.toCollection(LinkedList::new));
 
-        return GetBalancesResponse.create(elements, milestone, milestoneIndex);
+        return GetBalancesResponse.create(elements, ledger.milestone, ledger.milestoneIndex);
     }
 
     private synchronized AbstractResponse attachToTangleStatement(final Hash trunkTransaction, final Hash branchTransaction,
@@ -504,6 +539,21 @@ public class API {
         return AddedNeighborsResponse.create(numberOfAddedNeighbors);
     }
 
+    private static void exportTransactionsStatement(final HttpServerExchange exchange, final int fromMilestoneIndex, final int toMilestoneIndex) {
+
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/octet-stream");
+        setupResponseHeaders(exchange);
+        exchange.startBlocking();
+        try {
+            final long numberOfTransactions = new StorageExporter().exportTransactions(exchange.getOutputStream(), fromMilestoneIndex, toMilestoneIndex);
+            log.info("Exported {} transactions", numberOfTransactions);
+        } catch (final IOException e) {
+            log.error("Export interrupted: ", e); // The stream lacks its end frame, so the importer rejects it
+        } finally {
+            exchange.endExchange();
+        }
+    }
+
     private void sendResponse(final HttpServerExchange exchange, final AbstractResponse res, final long beginningTime)
             throws IOException {
         res.setDuration((int) (System.currentTimeMillis() - beginningTime));
@@ -1,28 +1,37 @@
 package com.iota.iri.service;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
-import com.iota.iri.model.Hash;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,8 +40,10 @@ import com.iota.iri.Milestone;
 import com.iota.iri.Neighbor;
 import com.iota.iri.conf.Configuration;
 import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.hash.BatchCurl;
 import com.iota.iri.hash.Curl;
 import com.iota.iri.model.Transaction;
+import com.iota.iri.model.TransactionView;
 import com.iota.iri.service.storage.Storage;
 import com.iota.iri.service.storage.StorageScratchpad;
 import com.iota.iri.service.storage.StorageTransactions;
@@ -49,26 +60,40 @@ public class Node {
     private static final int TRANSACTION_PACKET_SIZE = 1650;
     private static final int QUEUE_SIZE = 1000;
     private static final int PAUSE_BETWEEN_TRANSACTIONS = 1;
+    private static final int PIPELINE_SIZE = 1024; // packets in flight between the receiver and the reply stage
+    private static final int NUMBER_OF_VALIDATORS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static final long STAGE_POLL_TIMEOUT = 500;
+    private static final int STORER_BATCH_SIZE = 64; // transactions stored per lock acquisition
+    private static final int RECENT_TRANSACTIONS_CACHE_SIZE_LOG2 = 18;
 
-    private DatagramSocket socket;
+    private DatagramChannel channel;
+    private Selector selector;
+    private SelectionKey channelKey;
 
     private final AtomicBoolean shuttingDown = new AtomicBoolean(false);
 
     private final List<Neighbor> neighbors = new CopyOnWriteArrayList<>();
     private final ConcurrentSkipListSet<Transaction> queuedTransactions = weightQueue();
 
-    private final DatagramPacket receivingPacket = new DatagramPacket(new byte[TRANSACTION_PACKET_SIZE],
-            TRANSACTION_PACKET_SIZE);
-    private final DatagramPacket sendingPacket = new DatagramPacket(new byte[TRANSACTION_PACKET_SIZE],
-            TRANSACTION_PACKET_SIZE);
-    private final DatagramPacket tipRequestingPacket = new DatagramPacket(new byte[TRANSACTION_PACKET_SIZE],
-            TRANSACTION_PACKET_SIZE);
+    private final BlockingQueue<ReceivedPacket> freePackets = new ArrayBlockingQueue<>(PIPELINE_SIZE);
+    private final BlockingQueue<ReceivedPacket> receivedPackets = new ArrayBlockingQueue<>(PIPELINE_SIZE);
+    private final BlockingQueue<ReceivedPacket> validatedPackets = new ArrayBlockingQueue<>(PIPELINE_SIZE);
+    private final BlockingQueue<ReceivedPacket> storedPackets = new ArrayBlockingQueue<>(PIPELINE_SIZE);
 
-    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final RecentTransactionsCache recentTransactions = new RecentTransactionsCache(RECENT_TRANSACTIONS_CACHE_SIZE_LOG2);
+
+    private final BlockingQueue<SendingBuffer> freeSendingBuffers = new ArrayBlockingQueue<>(PIPELINE_SIZE);
+    private final Queue<OutgoingPacket> outgoingPackets = new ConcurrentLinkedQueue<>();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(6 + NUMBER_OF_VALIDATORS);
 
     public void init() throws Exception {
 
-        socket = new DatagramSocket(Configuration.integer(DefaultConfSettings.TANGLE_RECEIVER_PORT));
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.bind(new InetSocketAddress(Configuration.integer(DefaultConfSettings.TANGLE_RECEIVER_PORT)));
+        selector = Selector.open();
+        channelKey = channel.register(selector, SelectionKey.OP_READ);
 
         Arrays.stream(Configuration.string(DefaultConfSettings.NEIGHBORS)
                 .split(" "))
@@ -88,7 +113,17 @@ public class Node {
                 })
                 .forEach(neighbors::add);
 
-        executor.submit(spawnReceiverThread());
+        for (int i = 0; i < PIPELINE_SIZE; i++) {
+            freePackets.add(new ReceivedPacket());
+            freeSendingBuffers.add(new SendingBuffer());
+        }
+
+        executor.submit(spawnTransportThread());
+        for (int i = 0; i < NUMBER_OF_VALIDATORS; i++) {
+            executor.submit(spawnValidatorThread());
+        }
+        executor.submit(spawnStorerThread());
+        executor.submit(spawnReplierThread());
         executor.submit(spawnBroadcasterThread());
         executor.submit(spawnTipRequesterThread());
         executor.submit(spawnNeighborDNSRefresherThread());
@@ -165,93 +200,292 @@ public class Node {
         return Optional.of(hostAddress);
     }
     
-    private Runnable spawnReceiverThread() {
+    private Runnable spawnTransportThread() {
         return () -> {
 
-            final Curl curl = new Curl();
-            final int[] receivedTransactionTrits = new int[Transaction.TRINARY_SIZE];
-            final byte[] requestedTransaction = new byte[Transaction.HASH_SIZE];
+            log.info("Spawning Transport Thread");
 
-            log.info("Spawning Receiver Thread");
-
-            final SecureRandom rnd = new SecureRandom();
-            long randomTipBroadcastCounter = 0;
+            ReceivedPacket receivedPacket = null;
 
             while (!shuttingDown.get()) {
 
                 try {
-                    socket.receive(receivingPacket);
+                    if (receivedPacket == null) {
+                        receivedPacket = freePackets.poll();
+                    }
+                    channelKey.interestOps((receivedPacket == null ? 0 : SelectionKey.OP_READ)
+                            | (outgoingPackets.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+                    selector.select(STAGE_POLL_TIMEOUT);
+                    selector.selectedKeys().clear();
 
-                    if (receivingPacket.getLength() == TRANSACTION_PACKET_SIZE) {
+                    while (receivedPacket != null) {
+
+                        receivedPacket.buffer.clear();
+                        final SocketAddress address = channel.receive(receivedPacket.buffer);
+                        if (address == null) {
+                            break;
+                        }
 
-                        for (final Neighbor neighbor : neighbors) {
-                            if (neighbor.getAddress().equals(receivingPacket.getSocketAddress())) {
-                                try {
+                        if (receivedPacket.buffer.position() == TRANSACTION_PACKET_SIZE) {
 
+                            for (final Neighbor neighbor : neighbors) {
+                                if (neighbor.getAddress().equals(address)) {
                                     neighbor.incAllTransactions();
-                                    final Transaction receivedTransaction = new Transaction(receivingPacket.getData(),
-                                            receivedTransactionTrits, curl);
-                                    if (StorageTransactions.instance().storeTransaction(receivedTransaction.hash,
-                                            receivedTransaction, false) != 0) {
-                                        neighbor.incNewTransactions();
-                                        broadcast(receivedTransaction);
-                                    }
-
-                                    final long transactionPointer;
-                                    System.arraycopy(receivingPacket.getData(), Transaction.SIZE, requestedTransaction,
-                                            0, Transaction.HASH_SIZE);
-                                    if (Arrays.equals(requestedTransaction, receivedTransaction.hash)) {
-
-                                        if (Configuration.booling(DefaultConfSettings.EXPERIMENTAL) &&
-                                                ++randomTipBroadcastCounter % 3 == 0) {
-                                            log.info("Experimental: Random Tip Broadcaster.");
-
-                                            final String [] tips = StorageTransactions.instance().tips().stream()
-                                                    .map(Hash::toString)
-                                                    .toArray(size -> new String[size]);
-                                            final String rndTipHash = tips[rnd.nextInt(tips.length)];
-
-                                            transactionPointer = StorageTransactions.instance()
-                                                    .transactionPointer(rndTipHash.getBytes());
-                                        } else {
-                                            transactionPointer = StorageTransactions.instance()
-                                                    .transactionPointer(Milestone.latestMilestone.bytes());
-                                        }
-                                    } else {
-                                        transactionPointer = StorageTransactions.instance().transactionPointer(requestedTransaction);
-                                    }
-                                    if (transactionPointer > Storage.CELLS_OFFSET - Storage.SUPER_GROUPS_OFFSET) {
-                                        synchronized (sendingPacket) {
-                                            System.arraycopy(
-                                                    StorageTransactions.instance()
-                                                            .loadTransaction(transactionPointer).bytes,
-                                                    0, sendingPacket.getData(), 0, Transaction.SIZE);
-                                            StorageScratchpad.instance().transactionToRequest(sendingPacket.getData(),
-                                                    Transaction.SIZE);
-                                            neighbor.send(sendingPacket);
-                                        }
-                                    }
-                                } catch (final RuntimeException e) {
-                                    log.error("Received an Invalid Transaction. Dropping it...");
-                                    neighbor.incInvalidTransactions();
+                                    receivedPacket.neighbor = neighbor;
+                                    break;
+                                }
+                            }
+                        }
+
+                        if (receivedPacket.neighbor != null) {
+                            receivedPacket.buffer.flip();
+                            receivedPackets.put(receivedPacket); // Never blocks, the queue can hold the whole pool
+                            receivedPacket = freePackets.poll();
+                        }
+                    }
+
+                    OutgoingPacket outgoingPacket;
+                    while ((outgoingPacket = outgoingPackets.peek()) != null) {
+
+                        try {
+                            if (channel.send(outgoingPacket.payload, outgoingPacket.address) == 0) {
+                                break; // The socket buffer is full, wait till the channel becomes writable
+                            }
+                        } catch (final IOException e) {
+                            // ignore
+                        }
+                        outgoingPackets.poll();
+                        outgoingPacket.sendingBuffer.release();
+                    }
+                } catch (final Exception e) {
+                    log.error("Transport Thread Exception:", e);
+                }
+            }
+            log.info("Shutting down Transport Thread");
+        };
+    }
+
+    private Runnable spawnValidatorThread() {
+        return () -> {
+
+            final BatchCurl curl = new BatchCurl();
+            final List<ReceivedPacket> drainedPackets = new ArrayList<>(BatchCurl.MAX_NUMBER_OF_INSTANCES);
+            final ReceivedPacket[] batch = new ReceivedPacket[BatchCurl.MAX_NUMBER_OF_INSTANCES];
+            final byte[][] batchBytes = new byte[batch.length][TRANSACTION_PACKET_SIZE];
+            final int[][] batchTrits = new int[batch.length][Transaction.TRINARY_SIZE];
+            final int[][] batchHashTrits = new int[batch.length][Curl.HASH_LENGTH];
+
+            log.info("Spawning Validator Thread");
+
+            while (!shuttingDown.get()) {
+
+                try {
+                    final ReceivedPacket firstPacket = receivedPackets.poll(STAGE_POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                    if (firstPacket == null) {
+                        continue;
+                    }
+                    drainedPackets.clear();
+                    drainedPackets.add(firstPacket);
+                    receivedPackets.drainTo(drainedPackets, batch.length - 1);
+
+                    int batchSize = 0;
+                    for (final ReceivedPacket receivedPacket : drainedPackets) {
+
+                        // Most traffic is relayed by several neighbors, known transactions skip hashing and storing
+                        receivedPacket.fingerprint = recentTransactions.fingerprint(receivedPacket.buffer, Transaction.SIZE);
+                        if (recentTransactions.contains(receivedPacket.fingerprint)) {
+                            receivedPacket.neighbor.incDuplicateTransactions();
+                            storedPackets.put(receivedPacket);
+                            continue;
+                        }
+                        receivedPacket.neighbor.incHashedTransactions();
+
+                        receivedPacket.buffer.duplicate().get(batchBytes[batchSize]);
+                        Transaction.trits(batchBytes[batchSize], batchTrits[batchSize]);
+                        batch[batchSize++] = receivedPacket;
+                    }
+                    if (batchSize == 0) {
+                        continue;
+                    }
+
+                    curl.reset();
+                    curl.absorb(batchTrits, batchSize, 0, Transaction.TRINARY_SIZE);
+                    curl.squeeze(batchHashTrits, batchSize, 0, Curl.HASH_LENGTH);
+
+                    for (int i = 0; i < batchSize; i++) {
+
+                        final ReceivedPacket receivedPacket = batch[i];
+                        batch[i] = null;
+                        try {
+                            receivedPacket.transaction = new Transaction(batchBytes[i], batchTrits[i], batchHashTrits[i]);
+                        } catch (final RuntimeException e) {
+                            log.error("Received an Invalid Transaction. Dropping it...");
+                            receivedPacket.neighbor.incInvalidTransactions();
+                            release(receivedPacket);
+                            continue;
+                        }
+                        validatedPackets.put(receivedPacket);
+                    }
+                } catch (final Exception e) {
+                    log.error("Validator Thread Exception:", e);
+                }
+            }
+            log.info("Shutting down Validator Thread");
+        };
+    }
+
+    private Runnable spawnStorerThread() {
+        return () -> {
+
+            final List<ReceivedPacket> batch = new ArrayList<>(STORER_BATCH_SIZE);
+            final List<Transaction> transactions = new ArrayList<>(STORER_BATCH_SIZE);
+
+            log.info("Spawning Storer Thread");
+
+            while (!shuttingDown.get()) {
+
+                try {
+                    final ReceivedPacket firstPacket = validatedPackets.poll(STAGE_POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                    if (firstPacket == null) {
+                        continue;
+                    }
+                    batch.clear();
+                    batch.add(firstPacket);
+                    validatedPackets.drainTo(batch, STORER_BATCH_SIZE - 1);
+
+                    transactions.clear();
+                    for (final ReceivedPacket receivedPacket : batch) {
+                        transactions.add(receivedPacket.transaction);
+                    }
+
+                    final long[] pointers;
+                    try {
+                        pointers = StorageTransactions.instance().storeTransactions(transactions);
+                    } catch (final RuntimeException e) {
+                        log.error("Storing received Transactions error: ", e);
+                        batch.forEach(Node.this::release);
+                        continue;
+                    }
+
+                    for (int i = 0; i < batch.size(); i++) {
+
+                        final ReceivedPacket receivedPacket = batch.get(i);
+                        if (pointers[i] != 0) {
+                            receivedPacket.neighbor.incNewTransactions();
+                            broadcast(receivedPacket.transaction);
+                        }
+                        recentTransactions.add(receivedPacket.fingerprint);
+                        storedPackets.put(receivedPacket);
+                    }
+                } catch (final Exception e) {
+                    log.error("Storer Thread Exception:", e);
+                }
+            }
+            log.info("Shutting down Storer Thread");
+        };
+    }
+
+    private Runnable spawnReplierThread() {
+        return () -> {
+
+            final byte[] requestedTransaction = new byte[Transaction.HASH_SIZE];
+            final byte[] transactionToRequest = new byte[Transaction.HASH_SIZE];
+            final TransactionView transaction = new TransactionView();
+
+            log.info("Spawning Replier Thread");
+
+            final SecureRandom rnd = new SecureRandom();
+            long randomTipBroadcastCounter = 0;
+
+            while (!shuttingDown.get()) {
+
+                try {
+                    final ReceivedPacket receivedPacket = storedPackets.poll(STAGE_POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                    if (receivedPacket != null) {
+
+                        try {
+                            final long transactionPointer;
+                            ((ByteBuffer) receivedPacket.buffer.duplicate().position(Transaction.SIZE)).get(requestedTransaction);
+                            final long requestedTransactionPointer = StorageTransactions.instance().transactionPointer(requestedTransaction);
+
+                            // A duplicate was never hashed, it requests itself if the stored transaction has the same bytes
+                            final boolean tipsRequested = receivedPacket.transaction == null
+                                    ? requestedTransactionPointer > Storage.CELLS_OFFSET - Storage.SUPER_GROUPS_OFFSET
+                                            && transaction.at(requestedTransactionPointer).hasBytes(receivedPacket.buffer)
+                                    : Arrays.equals(requestedTransaction, receivedPacket.transaction.hash);
+                            if (tipsRequested) {
+
+                                if (Configuration.booling(DefaultConfSettings.EXPERIMENTAL) &&
+                                        ++randomTipBroadcastCounter % 3 == 0) {
+                                    log.info("Experimental: Random Tip Broadcaster.");
+
+                                    transactionPointer = StorageTransactions.instance().randomTipPointer(rnd);
+                                } else {
+                                    transactionPointer = StorageTransactions.instance()
+                                            .transactionPointer(Milestone.latestMilestone.bytes());
                                 }
-                                break;
+                            } else {
+                                transactionPointer = requestedTransactionPointer;
                             }
+                            if (transactionPointer > Storage.CELLS_OFFSET - Storage.SUPER_GROUPS_OFFSET) {
+                                StorageScratchpad.instance().transactionToRequest(transactionToRequest, 0);
+                                send(StorageTransactions.instance().loadTransaction(transactionPointer).bytes,
+                                        transactionToRequest, Collections.singletonList(receivedPacket.neighbor));
+                            }
+                        } finally {
+                            release(receivedPacket);
                         }
-                    } else {
-                        receivingPacket.setLength(TRANSACTION_PACKET_SIZE);
                     }
                 } catch (final Exception e) {
-                    log.error("Receiver Thread Exception:", e);
+                    log.error("Replier Thread Exception:", e);
                 }
             }
-            log.info("Shutting down spawning Receiver Thread");
+            log.info("Shutting down Replier Thread");
         };
     }
 
+    private void release(final ReceivedPacket receivedPacket) {
+
+        receivedPacket.neighbor = null;
+        receivedPacket.transaction = null;
+
+        final boolean starving = freePackets.isEmpty();
+        freePackets.offer(receivedPacket);
+        if (starving) {
+            selector.wakeup(); // The transport thread stopped reading for the lack of buffers
+        }
+    }
+
+    /**
+     * Copies the payload once into a pooled direct buffer and queues it for every recipient.
+     */
+    private void send(final byte[] transactionBytes, final byte[] transactionToRequest, final List<Neighbor> targets) throws InterruptedException {
+
+        // One snapshot for both the reference count and the queueing, the live list may change in between
+        final Neighbor[] recipients = targets.toArray(new Neighbor[0]);
+        if (recipients.length == 0) {
+            return;
+        }
+
+        final SendingBuffer sendingBuffer = freeSendingBuffers.poll(STAGE_POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+        if (sendingBuffer == null) {
+            return; // Datagrams are best effort anyway
+        }
+
+        sendingBuffer.buffer.clear();
+        sendingBuffer.buffer.put(transactionBytes, 0, Transaction.SIZE).put(transactionToRequest, 0, Transaction.HASH_SIZE).flip();
+        sendingBuffer.references.set(recipients.length);
+        for (final Neighbor recipient : recipients) {
+            outgoingPackets.offer(new OutgoingPacket(sendingBuffer, recipient.getAddress()));
+        }
+        selector.wakeup();
+    }
+
     private Runnable spawnBroadcasterThread() {
         return () -> {
 
+            final byte[] transactionToRequest = new byte[Transaction.HASH_SIZE];
+
             log.info("Spawning Broadcaster Thread");
 
             while (!shuttingDown.get()) {
@@ -260,19 +494,8 @@ public class Node {
                     final Transaction transaction = queuedTransactions.pollFirst();
                     if (transaction != null) {
 
-                        for (final Neighbor neighbor : neighbors) {
-                            try {
-                                synchronized (sendingPacket) {
-                                    System.arraycopy(transaction.bytes, 0, sendingPacket.getData(), 0,
-                                            Transaction.SIZE);
-                                    StorageScratchpad.instance().transactionToRequest(sendingPacket.getData(),
-                                            Transaction.SIZE);
-                                    neighbor.send(sendingPacket);
-                                }
-                            } catch (final Exception e) {
-                                // ignore
-                            }
-                        }
+                        StorageScratchpad.instance().transactionToRequest(transactionToRequest, 0);
+                        send(transaction.bytes, transactionToRequest, neighbors);
                     }
                     Thread.sleep(PAUSE_BETWEEN_TRANSACTIONS);
                 } catch (final Exception e) {
@@ -293,11 +516,7 @@ public class Node {
                 try {
                     final Transaction transaction = StorageTransactions.instance()
                             .loadMilestone(Milestone.latestMilestone);
-                    System.arraycopy(transaction.bytes, 0, tipRequestingPacket.getData(), 0, Transaction.SIZE);
-                    System.arraycopy(transaction.hash, 0, tipRequestingPacket.getData(), Transaction.SIZE,
-                            Transaction.HASH_SIZE);
-
-                    neighbors.forEach(n -> n.send(tipRequestingPacket));
+                    send(transaction.bytes, transaction.hash, neighbors);
 
                     Thread.sleep(5000);
                 } catch (final Exception e) {
@@ -332,13 +551,11 @@ public class Node {
     public void shutdown() throws InterruptedException {
         shuttingDown.set(true);
         executor.awaitTermination(6, TimeUnit.SECONDS);
-    }
-
-    public void send(final DatagramPacket packet) {
         try {
-            socket.send(packet);
-        } catch (IOException e) {
-            // ignore
+            selector.close();
+            channel.close();
+        } catch (final IOException e) {
+            log.error("Closing the channel error: ", e);
         }
     }
     
@@ -382,4 +599,43 @@ public class Node {
     }
     
     private Node() {}
+
+    /**
+     * Pooled receive buffer, travels through the pipeline stages together with what they have found out about it.
+     */
+    private static class ReceivedPacket {
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(TRANSACTION_PACKET_SIZE);
+        Neighbor neighbor;
+        long fingerprint;
+        Transaction transaction;
+    }
+
+    /**
+     * Pooled send buffer, shared by all the recipients of its payload and returned to the pool after the last send.
+     */
+    private class SendingBuffer {
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(TRANSACTION_PACKET_SIZE);
+        final AtomicInteger references = new AtomicInteger();
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                freeSendingBuffers.offer(this);
+            }
+        }
+    }
+
+    private static class OutgoingPacket {
+
+        final SendingBuffer sendingBuffer;
+        final ByteBuffer payload;
+        final SocketAddress address;
+
+        OutgoingPacket(final SendingBuffer sendingBuffer, final SocketAddress address) {
+            this.sendingBuffer = sendingBuffer;
+            this.payload = sendingBuffer.buffer.duplicate();
+            this.address = address;
+        }
+    }
 }
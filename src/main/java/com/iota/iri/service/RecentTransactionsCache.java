@@ -0,0 +1,59 @@
+package com.iota.iri.service;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lossy set of fingerprints of recently stored transactions.
+ *
+ * Each fingerprint has exactly one slot, a newer transaction simply evicts whatever was there.
+ * A miss only costs a redundant validation, so no locking is needed and nothing is allocated per lookup.
+ */
+public class RecentTransactionsCache {
+
+    private static final long EMPTY_SLOT = 0;
+
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final long key;
+
+    public RecentTransactionsCache(final int numberOfSlotsLog2) {
+        slots = new AtomicLongArray(1 << numberOfSlotsLog2);
+        mask = (1 << numberOfSlotsLog2) - 1;
+        key = new SecureRandom().nextLong();
+    }
+
+    public boolean contains(final long fingerprint) {
+        return slots.get((int) fingerprint & mask) == fingerprint;
+    }
+
+    public void add(final long fingerprint) {
+        slots.lazySet((int) fingerprint & mask, fingerprint);
+    }
+
+    /**
+     * 64-bit digest of the first {@code length} bytes of the buffer, never equal to an empty slot.
+     * The digest is seeded with a per-process random key, otherwise colliding payloads could be crafted offline.
+     */
+    public long fingerprint(final ByteBuffer buffer, final int length) {
+
+        long hash = mix(key ^ length);
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            hash = Long.rotateLeft(hash ^ mix(buffer.getLong(i)), 27) * 0x9E3779B97F4A7C15L;
+        }
+        for (; i < length; i++) {
+            hash = Long.rotateLeft(hash ^ (buffer.get(i) & 0xFF), 11) * 0x9E3779B97F4A7C15L;
+        }
+        hash = mix(hash);
+
+        return hash == EMPTY_SLOT ? 1 : hash;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return value ^ (value >>> 33);
+    }
+}
@@ -1,14 +1,11 @@
 package com.iota.iri.service;
 
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 
 import org.slf4j.Logger;
@@ -16,13 +13,14 @@ import org.slf4j.LoggerFactory;
 
 import com.iota.iri.Bundle;
 import com.iota.iri.Milestone;
-import com.iota.iri.Snapshot;
 import com.iota.iri.model.Hash;
 import com.iota.iri.model.Transaction;
 import com.iota.iri.service.storage.Storage;
-import com.iota.iri.service.storage.StorageApprovers;
+import com.iota.iri.service.storage.StorageLedger;
 import com.iota.iri.service.storage.StorageScratchpad;
 import com.iota.iri.service.storage.StorageTransactions;
+import com.iota.iri.service.storage.TangleWalker;
+import com.iota.iri.service.storage.TraversalContext;
 
 public class TipsManager {
 
@@ -64,63 +62,55 @@ public class TipsManager {
 
     static synchronized Hash transactionToApprove(final Hash extraTip, int depth) {
 
-        final Hash preferableMilestone = Milestone.latestSolidSubtangleMilestone;
+        final StorageLedger.State ledger = StorageLedger.instance().state();
+        final Hash preferableMilestone = ledger.milestone;
 
-        synchronized (StorageScratchpad.instance().getAnalyzedTransactionsFlags()) {
+        try (final TraversalContext traversal = StorageScratchpad.instance().traversalContext()) {
 
-        	StorageScratchpad.instance().clearAnalyzedTransactionsFlags();
+            final TangleWalker walker = new TangleWalker(traversal);
+            final Map<Hash, Long> state = new HashMap<>(ledger.balances());
 
-            Map<Hash, Long> state = new HashMap<>(Snapshot.initialState);
+            final boolean consistent = walker.walkApprovees(transaction -> {
 
-            {
-                int numberOfAnalyzedTransactions = 0;
-
-                final Queue<Long> nonAnalyzedTransactions = new LinkedList<>(Collections.singleton(StorageTransactions.instance().transactionPointer((extraTip == null ? preferableMilestone : extraTip).bytes())));
-                Long pointer;
-                while ((pointer = nonAnalyzedTransactions.poll()) != null) {
-
-                    if (StorageScratchpad.instance().setAnalyzedTransactionFlag(pointer)) {
-
-                        numberOfAnalyzedTransactions++;
-
-                        final Transaction transaction = StorageTransactions.instance().loadTransaction(pointer);
-                        if (transaction.type == Storage.PREFILLED_SLOT) {
-                            return null;
-                        } else {
+                if (ledger.confirms(transaction)) {
+                    return TangleWalker.Step.SKIP;
+                }
+                if (transaction.type() == Storage.PREFILLED_SLOT) {
+                    return TangleWalker.Step.STOP;
+                }
 
-                            if (transaction.currentIndex == 0) {
+                if (transaction.currentIndex() == 0) {
 
-                                boolean validBundle = false;
+                    boolean validBundle = false;
 
-                                final Bundle bundle = new Bundle(transaction.bundle);
-                                for (final List<Transaction> bundleTransactions : bundle.getTransactions()) {
+                    final Bundle bundle = new Bundle(transaction.bundle());
+                    for (final List<Transaction> bundleTransactions : bundle.getTransactions()) {
 
-                                    if (bundleTransactions.get(0).pointer == transaction.pointer) {
+                        if (bundleTransactions.get(0).pointer == transaction.pointer()) {
 
-                                        validBundle = true;
+                            validBundle = true;
 
-                                        bundleTransactions.stream().filter(bundleTransaction -> bundleTransaction.value != 0).forEach(bundleTransaction -> {
-                                            final Hash address = new Hash(bundleTransaction.address);
-                                            final Long value = state.get(address);
-                                            state.put(address, value == null ? bundleTransaction.value : (value + bundleTransaction.value));
-                                        });
-                                        break;
-                                    }
-                                }
-
-                                if (!validBundle) {
-                                    return null;
-                                }
-                            }
-
-                            nonAnalyzedTransactions.offer(transaction.trunkTransactionPointer);
-                            nonAnalyzedTransactions.offer(transaction.branchTransactionPointer);
+                            bundleTransactions.stream().filter(bundleTransaction -> bundleTransaction.value != 0).forEach(bundleTransaction -> {
+                                final Hash address = new Hash(bundleTransaction.address);
+                                final Long value = state.get(address);
+                                state.put(address, value == null ? bundleTransaction.value : (value + bundleTransaction.value));
+                            });
+                            break;
                         }
                     }
+
+                    if (!validBundle) {
+                        return TangleWalker.Step.STOP;
+                    }
                 }
+                return TangleWalker.Step.DESCEND;
 
-                log.info("Confirmed transactions = {}", numberOfAnalyzedTransactions);
+            }, StorageTransactions.instance().transactionPointer((extraTip == null ? preferableMilestone : extraTip).bytes()));
+
+            if (!consistent) {
+                return null;
             }
+            log.info("Confirmed transactions = {}", walker.numberOfVisitedTransactions());
 
             final Iterator<Map.Entry<Hash, Long>> stateIterator = state.entrySet().iterator();
             while (stateIterator.hasNext()) {
@@ -136,8 +126,8 @@ public class TipsManager {
                 }
             }
 
-            StorageScratchpad.instance().saveAnalyzedTransactionsFlags();
-            StorageScratchpad.instance().clearAnalyzedTransactionsFlags();
+            traversal.saveAnalyzedTransactionsFlags();
+            traversal.clearAnalyzedTransactionsFlags();
 
             final Set<Hash> tailsToAnalyze = new HashSet<>();
 
@@ -153,31 +143,24 @@ public class TipsManager {
                     } while (transaction.currentIndex != 0);
                 }
             }
-            final Queue<Long> nonAnalyzedTransactions = new LinkedList<>(Collections.singleton(StorageTransactions.instance().transactionPointer(tip.bytes())));
-            Long pointer;
-            while ((pointer = nonAnalyzedTransactions.poll()) != null) {
-
-                if (StorageScratchpad.instance().setAnalyzedTransactionFlag(pointer)) {
+            walker.walkApprovers(transaction -> {
 
-                    final Transaction transaction = StorageTransactions.instance().loadTransaction(pointer);
-
-                    if (transaction.currentIndex == 0) {
-                        tailsToAnalyze.add(new Hash(transaction.hash, 0, Transaction.HASH_SIZE));
-                    }
-
-                    StorageApprovers.instance().approveeTransactions(StorageApprovers.instance().approveePointer(transaction.hash)).forEach(nonAnalyzedTransactions::offer);
+                if (transaction.currentIndex() == 0 && !ledger.confirms(transaction)) {
+                    tailsToAnalyze.add(transaction.hash());
                 }
-            }
+                return TangleWalker.Step.DESCEND;
+
+            }, StorageTransactions.instance().transactionPointer(tip.bytes()));
 
             if (extraTip != null) {
 
-                StorageScratchpad.instance().loadAnalyzedTransactionsFlags();
+                traversal.loadAnalyzedTransactionsFlags();
 
                 final Iterator<Hash> tailsToAnalyzeIterator = tailsToAnalyze.iterator();
                 while (tailsToAnalyzeIterator.hasNext()) {
 
                     final Transaction tail = StorageTransactions.instance().loadTransaction(tailsToAnalyzeIterator.next().bytes());
-                    if (StorageScratchpad.instance().analyzedTransactionFlag(tail.pointer)) {
+                    if (traversal.analyzedTransactionFlag(tail.pointer)) {
                         tailsToAnalyzeIterator.remove();
                     }
                 }
@@ -188,27 +171,21 @@ public class TipsManager {
             int bestRating = 0;
             for (final Hash tail : tailsToAnalyze) {
 
-            	StorageScratchpad.instance().loadAnalyzedTransactionsFlags();
+            	traversal.loadAnalyzedTransactionsFlags();
 
-                Set<Hash> extraTransactions = new HashSet<>();
+                final Set<Hash> tailTransactions = new HashSet<>();
+                Set<Hash> extraTransactions = walker.walkApprovees(transaction -> {
 
-                nonAnalyzedTransactions.clear();
-                nonAnalyzedTransactions.offer(StorageTransactions.instance().transactionPointer(tail.bytes()));
-                while ((pointer = nonAnalyzedTransactions.poll()) != null) {
-
-                    if (StorageScratchpad.instance().setAnalyzedTransactionFlag(pointer)) {
-
-                        final Transaction transaction = StorageTransactions.instance().loadTransaction(pointer);
-                        if (transaction.type == Storage.PREFILLED_SLOT) {
-                            extraTransactions = null;
-                            break;
-                        } else {
-                            extraTransactions.add(new Hash(transaction.hash, 0, Transaction.HASH_SIZE));
-                            nonAnalyzedTransactions.offer(transaction.trunkTransactionPointer);
-                            nonAnalyzedTransactions.offer(transaction.branchTransactionPointer);
-                        }
+                    if (ledger.confirms(transaction)) {
+                        return TangleWalker.Step.SKIP;
                     }
-                }
+                    if (transaction.type() == Storage.PREFILLED_SLOT) {
+                        return TangleWalker.Step.STOP;
+                    }
+                    tailTransactions.add(transaction.hash());
+                    return TangleWalker.Step.DESCEND;
+
+                }, StorageTransactions.instance().transactionPointer(tail.bytes())) ? tailTransactions : null;
 
                 if (extraTransactions != null) {
 
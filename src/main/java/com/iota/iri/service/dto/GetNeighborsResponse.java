@@ -13,7 +13,7 @@ public class GetNeighborsResponse extends AbstractResponse {
     static class Neighbor {
 
     	private String address;
-    	public int numberOfAllTransactions, numberOfNewTransactions, numberOfInvalidTransactions;
+    	public int numberOfAllTransactions, numberOfNewTransactions, numberOfInvalidTransactions, numberOfDuplicateTransactions, numberOfHashedTransactions;
 
         public String getAddress() {
             return address;
@@ -27,6 +27,12 @@ public class GetNeighborsResponse extends AbstractResponse {
         public int getNumberOfInvalidTransactions() {
 			return numberOfInvalidTransactions;
 		}
+        public int getNumberOfDuplicateTransactions() {
+            return numberOfDuplicateTransactions;
+        }
+        public int getNumberOfHashedTransactions() {
+            return numberOfHashedTransactions;
+        }
 
         public static Neighbor createFrom(com.iota.iri.Neighbor n) {
         	Neighbor ne = new Neighbor();
@@ -34,6 +40,8 @@ public class GetNeighborsResponse extends AbstractResponse {
         	ne.numberOfAllTransactions = n.getNumberOfAllTransactions();
         	ne.numberOfInvalidTransactions = n.getNumberOfInvalidTransactions();
         	ne.numberOfNewTransactions = n.getNumberOfNewTransactions();
+        	ne.numberOfDuplicateTransactions = n.getNumberOfDuplicateTransactions();
+        	ne.numberOfHashedTransactions = n.getNumberOfHashedTransactions();
         	return ne;
         }
     }
@@ -23,12 +23,15 @@ public class GetNodeInfoResponse extends AbstractResponse {
     private long time;
     private int tips;
     private int transactionsToRequest;
+    private long storageFlushLag;
+    private long storageUnflushedBytes;
 
 	public static AbstractResponse create(String appName, String appVersion, int jreAvailableProcessors, long jreFreeMemory,
 	        String jreVersion, long maxMemory, long totalMemory, Hash latestMilestone, int latestMilestoneIndex,
 	        Hash latestSolidSubtangleMilestone, int latestSolidSubtangleMilestoneIndex,
 	        int neighbors, int packetsQueueSize,
-	        long currentTimeMillis, int tips, int numberOfTransactionsToRequest) {
+	        long currentTimeMillis, int tips, int numberOfTransactionsToRequest,
+	        long storageFlushLag, long storageUnflushedBytes) {
 		final GetNodeInfoResponse res = new GetNodeInfoResponse();
 		res.appName = appName;
 		res.appVersion = appVersion;
@@ -49,6 +52,8 @@ public class GetNodeInfoResponse extends AbstractResponse {
 		res.time = currentTimeMillis;
 		res.tips = tips;
 		res.transactionsToRequest = numberOfTransactionsToRequest;
+		res.storageFlushLag = storageFlushLag;
+		res.storageUnflushedBytes = storageUnflushedBytes;
 		return res;
 	}
 
@@ -116,4 +121,12 @@ public class GetNodeInfoResponse extends AbstractResponse {
 		return transactionsToRequest;
 	}
 
+	public long getStorageFlushLag() {
+		return storageFlushLag;
+	}
+
+	public long getStorageUnflushedBytes() {
+		return storageUnflushedBytes;
+	}
+
 }
@@ -3,9 +3,31 @@ package com.iota.iri.service.storage;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongPredicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.utils.LongQueue;
 
 public abstract class AbstractStorage {
 
+    private static final Logger log = LoggerFactory.getLogger(AbstractStorage.class);
+
     public final static int CELL_SIZE = 2048;
 	
     public final static int CELLS_PER_CHUNK = 65536;
@@ -21,14 +43,6 @@ public abstract class AbstractStorage {
     public final static int CELLS_OFFSET = SUPER_GROUPS_OFFSET + SUPER_GROUPS_SIZE;
 
     public final static int TRANSACTIONS_TO_REQUEST_OFFSET = 0, TRANSACTIONS_TO_REQUEST_SIZE = CHUNK_SIZE;
-	
-    public final static int ANALYZED_TRANSACTIONS_FLAGS_OFFSET = TRANSACTIONS_TO_REQUEST_OFFSET
-            + TRANSACTIONS_TO_REQUEST_SIZE,
-            ANALYZED_TRANSACTIONS_FLAGS_SIZE = MAX_NUMBER_OF_CHUNKS * CELLS_PER_CHUNK / Byte.SIZE;
-
-    public final static int ANALYZED_TRANSACTIONS_FLAGS_COPY_OFFSET = ANALYZED_TRANSACTIONS_FLAGS_OFFSET
-            + ANALYZED_TRANSACTIONS_FLAGS_SIZE,
-            ANALYZED_TRANSACTIONS_FLAGS_COPY_SIZE = ANALYZED_TRANSACTIONS_FLAGS_SIZE;
 
     public final static int GROUP = 0; // transactions GROUP means that's it's a non-leaf node (leafs store transaction bytes)
     public final static int PREFILLED_SLOT = 1; // means that we know only hash of the tx, the rest is unknown yet: only another tx references that hash
@@ -39,12 +53,38 @@ public abstract class AbstractStorage {
     protected static final byte[] ZEROED_BUFFER = new byte[CELL_SIZE];
 	
     protected static final byte[] mainBuffer = new byte[CELL_SIZE];
-    protected static final byte[] auxBuffer = new byte[CELL_SIZE];
+
+    private static final String HEADER_FILE_NAME_SUFFIX = ".header";
+    private static final int HEADER_VERSION = 4, BOOT_ID_SIZE = 36, HEADER_SIZE = Integer.BYTES + Byte.BYTES + Long.BYTES + Long.BYTES + BOOT_ID_SIZE;
+    private static final int HEADER_CLEAN_OFFSET = Integer.BYTES, HEADER_NEXT_POINTER_OFFSET = HEADER_CLEAN_OFFSET + Byte.BYTES,
+            HEADER_FIRST_POINTER_OFFSET = HEADER_NEXT_POINTER_OFFSET + Long.BYTES, HEADER_BOOT_ID_OFFSET = HEADER_FIRST_POINTER_OFFSET + Long.BYTES;
+    private static final byte[] BOOT_ID = bootId();
+
+    private static final ThreadLocal<byte[]> cellBuffer = ThreadLocal.withInitial(() -> new byte[CELL_SIZE]);
+
+    private static final ExecutorService chunkMapper = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "Chunk Mapper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The chunk following the last mapped one, guarded by Storage.class like the next pointers
+    private Future<ByteBuffer> nextChunk;
+    private long nextChunkPosition;
+
+    // The pointer the cells appended since the last reboot after an unclean shutdown start at, the ones below it are never reused
+    private long firstPointer = SUPER_GROUPS_SIZE;
+
+    private final AtomicLongArray dirtyChunks = new AtomicLongArray(MAX_NUMBER_OF_CHUNKS / Long.SIZE); // One bit per chunk written since its last flush
     
 	public static long value(final byte[] buffer, final int offset) {
         return ((long)(buffer[offset] & 0xFF)) + (((long)(buffer[offset + 1] & 0xFF)) << 8) + (((long)(buffer[offset + 2] & 0xFF)) << 16) + (((long)(buffer[offset + 3] & 0xFF)) << 24) + (((long)(buffer[offset + 4] & 0xFF)) << 32) + (((long)(buffer[offset + 5] & 0xFF)) << 40) + (((long)(buffer[offset + 6] & 0xFF)) << 48) + (((long)(buffer[offset + 7] & 0xFF)) << 56);
     }
 
+    public static long value(final ByteBuffer buffer, final int offset) { // Absolute reads, the position of the (shared) buffer is left untouched
+        return ((long)(buffer.get(offset) & 0xFF)) + (((long)(buffer.get(offset + 1) & 0xFF)) << 8) + (((long)(buffer.get(offset + 2) & 0xFF)) << 16) + (((long)(buffer.get(offset + 3) & 0xFF)) << 24) + (((long)(buffer.get(offset + 4) & 0xFF)) << 32) + (((long)(buffer.get(offset + 5) & 0xFF)) << 40) + (((long)(buffer.get(offset + 6) & 0xFF)) << 48) + (((long)(buffer.get(offset + 7) & 0xFF)) << 56);
+    }
+
     public static void setValue(final byte[] buffer, final int offset, final long value) {
 
         buffer[offset] = (byte)value;
@@ -57,6 +97,13 @@ public abstract class AbstractStorage {
         buffer[offset + 7] = (byte)(value >> 56);
     }
 	
+    public static void setValue(final ByteBuffer buffer, final int offset, final long value) { // Absolute writes
+
+        for (int i = 0; i < Long.BYTES; i++) {
+            buffer.put(offset + i, (byte)(value >> (i << 3)));
+        }
+    }
+	
     protected static boolean flush(final ByteBuffer buffer) {
 
         try {
@@ -68,6 +115,313 @@ public abstract class AbstractStorage {
         }
     }
 	
+    /**
+     * Records a write to the cell at the given pointer, it must be called once the bytes are in the chunk.
+     */
+    protected void markDirty(final long pointer) {
+
+        final int chunkIndex = (int) (pointer >> 27);
+        final long chunkBit = 1L << chunkIndex;
+        if ((dirtyChunks.get(chunkIndex >> 6) & chunkBit) == 0) {
+            dirtyChunks.getAndAccumulate(chunkIndex >> 6, chunkBit, (bits, bit) -> bits | bit);
+        }
+        StorageFlusher.instance().written(CELL_SIZE);
+    }
+
+    /**
+     * Forces only the chunks written since the previous call, the ones which fail stay dirty.
+     *
+     * @return true if all of them were flushed
+     */
+    protected synchronized boolean flushDirtyChunks(final ByteBuffer[] chunks) {
+
+        boolean flushed = true;
+        for (int i = 0; i < dirtyChunks.length(); i++) {
+
+            if (dirtyChunks.get(i) == 0) {
+                continue;
+            }
+            long bits = dirtyChunks.getAndSet(i, 0);
+            while (bits != 0) {
+
+                final int chunkIndex = (i << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (!flush(chunks[chunkIndex])) {
+                    dirtyChunks.getAndAccumulate(i, 1L << chunkIndex, (dirtyBits, bit) -> dirtyBits | bit);
+                    flushed = false;
+                }
+            }
+        }
+        return flushed;
+    }
+
+    /**
+     * Forces the writes made since the previous call, called by {@link StorageFlusher} and at shutdown.
+     *
+     * @return true if everything was flushed
+     */
+    boolean flushWrites() {
+        return true;
+    }
+
+    /**
+     * Copies the cell at the given pointer into a buffer owned by the calling thread.
+     * The returned array is reused by the next call made from the same thread.
+     */
+    protected static byte[] loadCell(final ByteBuffer[] chunks, final long pointer) {
+
+        final byte[] buffer = cellBuffer.get();
+        ((ByteBuffer)chunks[(int)(pointer >> 27)].duplicate().position((int)(pointer & (CHUNK_SIZE - 1)))).get(buffer);
+        return buffer;
+    }
+	
+    /**
+     * Overwrites the pointers of a chain of cells which "stale" matches with the ones polled from "replacements", while there are some.
+     * The chain is read from "offset" in its first cell, the last slot of each cell links the next one, up to a null pointer or "size" pointers.
+     */
+    protected void replaceStalePointers(final ByteBuffer[] chunks, long pointer, int offset, final long size, final LongPredicate stale, final LongQueue replacements) {
+
+        long numberOfPointers = 0;
+        while (numberOfPointers < size && !replacements.isEmpty()) {
+
+            final ByteBuffer chunk = chunks[(int) (pointer >> 27)];
+            final int cellOffset = (int) (pointer & (CHUNK_SIZE - 1));
+            if (offset == CELL_SIZE - Long.BYTES) {
+
+                if ((pointer = value(chunk, cellOffset + offset)) == 0) {
+                    break;
+                }
+                offset = 0;
+                continue;
+            }
+
+            final long listedPointer = value(chunk, cellOffset + offset);
+            if (listedPointer == 0) {
+                break;
+            }
+            if (stale.test(listedPointer)) {
+                setValue(chunk, cellOffset + offset, replacements.poll());
+                markDirty(pointer);
+            }
+            numberOfPointers++;
+            offset += Long.BYTES;
+        }
+    }
+
+    /**
+     * Orders keys of equal length like the cells of a trie are laid out.
+     * The second byte selects the super group cell, so it's the most significant.
+     */
+    static int compareTriePaths(final byte[] key1, final byte[] key2) {
+
+        if (key1[1] != key2[1]) {
+            return Byte.compare(key1[1], key2[1]);
+        }
+        if (key1[0] != key2[0]) {
+            return Byte.compare(key1[0], key2[0]);
+        }
+        for (int i = 2; i < key1.length; i++) {
+            if (key1[i] != key2[i]) {
+                return Byte.compare(key1[i], key2[i]);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Maps the chunk starting at the position in the file, then starts mapping the following one in the background.
+     * Appending cells across a chunk boundary usually finds its chunk already mapped this way, without stalling the writers.
+     */
+    protected ByteBuffer mapChunk(final FileChannel channel, final long position) throws IOException {
+
+        ByteBuffer chunk = null;
+        if (nextChunk != null && nextChunkPosition == position) {
+            try {
+                chunk = nextChunk.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (final ExecutionException e) {
+                log.warn("Mapping a chunk in the background failed, retrying", e.getCause());
+            }
+        }
+        if (chunk == null) {
+            chunk = channel.map(FileChannel.MapMode.READ_WRITE, position, CHUNK_SIZE);
+        }
+
+        mapInBackground(channel, position + CHUNK_SIZE);
+        return chunk;
+    }
+
+    private void mapInBackground(final FileChannel channel, final long position) {
+
+        nextChunkPosition = position;
+        nextChunk = chunkMapper.submit(() -> channel.map(FileChannel.MapMode.READ_WRITE, position, CHUNK_SIZE));
+    }
+
+    /**
+     * Maps the cells of a storage file, whose pointers start at "chunksOffset" in the file, and finds the first free cell.
+     *
+     * The pointer comes from the header saved by {@link #saveHeader(String, long, boolean)} at the last clean shutdown,
+     * the cells are only scanned if it's missing or doesn't match the file. The header is then marked as dirty until the next clean shutdown.
+     * Without a clean shutdown all the chunks are marked dirty, as the previous run may have left writes which were never forced.
+     * If the machine was rebooted since, some of those writes may be lost while cells pointing to them survived,
+     * so the cells appended from then on start past the last chunk holding a cell instead of reusing pointers which may still be referenced.
+     * That first pointer is kept in the header, neither the scans nor a clean header ever go below it, even though the cells before it may be empty.
+     * The chunk following the one of the first free cell is then mapped in the background, see {@link #mapChunk(FileChannel, long)}.
+     *
+     * @return the pointer of the first free cell
+     */
+    protected long mapChunks(final FileChannel channel, final String fileName, final ByteBuffer[] chunks, final long chunksOffset) throws IOException {
+
+        chunks[0] = channel.map(FileChannel.MapMode.READ_WRITE, chunksOffset, SUPER_GROUPS_SIZE);
+
+        final ByteBuffer header = loadHeader(fileName);
+        firstPointer = header != null ? header.getLong(HEADER_FIRST_POINTER_OFFSET) : SUPER_GROUPS_SIZE;
+        if (firstPointer < SUPER_GROUPS_SIZE || (firstPointer & (CELL_SIZE - 1)) != 0 || chunksOffset + firstPointer > channel.size()) {
+            firstPointer = SUPER_GROUPS_SIZE;
+        }
+        long nextPointer = header != null && header.get(HEADER_CLEAN_OFFSET) != 0 ? header.getLong(HEADER_NEXT_POINTER_OFFSET) : 0;
+        if (nextPointer < firstPointer || (nextPointer & (CELL_SIZE - 1)) != 0 || chunksOffset + nextPointer > channel.size()) {
+            nextPointer = 0;
+        } else {
+            for (int i = 1; i <= (int) (nextPointer >> 27); i++) {
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, chunksOffset + ((long) i << 27), CHUNK_SIZE);
+            }
+            if (!emptyCell(chunks, nextPointer) || (nextPointer > firstPointer && emptyCell(chunks, nextPointer - CELL_SIZE))) {
+                nextPointer = 0;
+            }
+        }
+
+        if (nextPointer == 0) {
+
+            log.info("No clean shutdown recorded for {}, scanning its cells", fileName);
+
+            nextPointer = firstPointer;
+            for (int i = 1; i <= (int) ((nextPointer - 1) >> 27); i++) { // The chunk holding the first pointer is mapped by the scan if it starts there
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, chunksOffset + ((long) i << 27), CHUNK_SIZE);
+            }
+            final long channelSize = channel.size();
+            while (true) {
+
+                if ((nextPointer & (CHUNK_SIZE - 1)) == 0) {
+                    chunks[(int) (nextPointer >> 27)] = channel.map(FileChannel.MapMode.READ_WRITE, chunksOffset + nextPointer, CHUNK_SIZE);
+
+                    // The last chunk may have been mapped ahead and still be empty, so a chunk is only skipped if the following one is used
+                    if (chunksOffset + nextPointer + CHUNK_SIZE < channelSize) {
+                        chunks[(int) (nextPointer >> 27) + 1] = channel.map(FileChannel.MapMode.READ_WRITE, chunksOffset + nextPointer + CHUNK_SIZE, CHUNK_SIZE);
+                        if (!emptyCell(chunks, nextPointer + CHUNK_SIZE)) {
+                            nextPointer += CHUNK_SIZE;
+                            continue;
+                        }
+                    }
+                }
+                if (emptyCell(chunks, nextPointer)) {
+                    break;
+                }
+                nextPointer += CELL_SIZE;
+            }
+            if (header != null && (BOOT_ID == null || !Arrays.equals(BOOT_ID, Arrays.copyOfRange(header.array(), HEADER_BOOT_ID_OFFSET, HEADER_SIZE)))) {
+
+                // Lost writes can only be referenced from the chunks that still hold cells, the chunks mapped ahead are empty
+                long lastChunk = (channel.size() - chunksOffset - CHUNK_SIZE) >> 27;
+                while (lastChunk > nextPointer >> 27 && emptyChunk(channel, chunksOffset + (lastChunk << 27))) {
+                    lastChunk--;
+                }
+                firstPointer = Math.max((lastChunk + 1) << 27, (nextPointer + CHUNK_SIZE - 1) & -CHUNK_SIZE);
+                log.info("{} wasn't shut down cleanly before a reboot, its new cells start {} cells past the first free one", fileName, (firstPointer - nextPointer) >> 11);
+
+                for (long i = (nextPointer >> 27) + 1; i <= firstPointer >> 27; i++) {
+                    chunks[(int) i] = channel.map(FileChannel.MapMode.READ_WRITE, chunksOffset + (i << 27), CHUNK_SIZE);
+                }
+                nextPointer = firstPointer;
+            }
+            for (int i = 0; i <= (int) (nextPointer >> 27); i++) {
+                markDirty((long) i << 27);
+            }
+        }
+
+        mapInBackground(channel, chunksOffset + ((nextPointer >> 27) + 1 << 27));
+
+        saveHeader(fileName, nextPointer, false);
+        return nextPointer;
+    }
+
+    private static boolean emptyChunk(final FileChannel channel, final long position) throws IOException {
+
+        final ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, CHUNK_SIZE);
+        for (int offset = 0; offset < CHUNK_SIZE; offset += Long.BYTES) {
+            if (chunk.getLong(offset) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean emptyCell(final ByteBuffer[] chunks, final long pointer) {
+
+        for (final byte value : loadCell(chunks, pointer)) {
+            if (value != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the header, null if there is none
+     */
+    private static ByteBuffer loadHeader(final String fileName) {
+
+        final Path path = path(fileName + HEADER_FILE_NAME_SUFFIX);
+        try {
+            final ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(path));
+            if (header.remaining() == HEADER_SIZE && header.getInt(0) == HEADER_VERSION) {
+                return header;
+            }
+        } catch (final IOException e) {
+            // Missing, the cells get scanned
+        }
+        return null;
+    }
+
+    /**
+     * @return the identifier of the current boot of the machine, null if it isn't known
+     */
+    private static byte[] bootId() {
+
+        try {
+            return Arrays.copyOf(Files.readAllBytes(Paths.get("/proc/sys/kernel/random/boot_id")), BOOT_ID_SIZE);
+        } catch (final IOException e) {
+            return null; // Not Linux, every unclean shutdown is handled like a crash of the machine
+        }
+    }
+
+    /**
+     * Atomically replaces the header of a storage file, "clean" must only be set once all its chunks are flushed.
+     * Besides the version and the flag it holds the next pointer, the first pointer of the cells appended since the last reboot
+     * which followed an unclean shutdown, and the boot of the machine which wrote it.
+     */
+    protected void saveHeader(final String fileName, final long nextPointer, final boolean clean) throws IOException {
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(HEADER_VERSION).put((byte) (clean ? 1 : 0)).putLong(nextPointer).putLong(firstPointer)
+                .put(BOOT_ID == null ? new byte[BOOT_ID_SIZE] : BOOT_ID).flip();
+
+        final Path temporaryPath = path(fileName + HEADER_FILE_NAME_SUFFIX + ".tmp");
+        try (final FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(header);
+            channel.force(true);
+        }
+        Files.move(temporaryPath, path(fileName + HEADER_FILE_NAME_SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Resolves a storage file against the configured {@link DefaultConfSettings#DB_PATH}.
+     */
+    protected static Path path(final String fileName) {
+        return Paths.get(Configuration.string(DefaultConfSettings.DB_PATH), fileName);
+    }
+
 	protected void emptyMainBuffer() {
         System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
 	}
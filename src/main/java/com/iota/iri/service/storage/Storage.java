@@ -3,11 +3,28 @@ package com.iota.iri.service.storage;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,6 +32,7 @@ import org.slf4j.LoggerFactory;
 import com.iota.iri.Milestone;
 import com.iota.iri.model.Hash;
 import com.iota.iri.model.Transaction;
+import com.iota.iri.utils.LongQueue;
 
 /**
  * Storage is organized as 243-value tree
@@ -23,31 +41,60 @@ public class Storage extends AbstractStorage {
 	
     private static final Logger log = LoggerFactory.getLogger(Storage.class);
 
-    public static final byte[][] approvedTransactionsToStore = new byte[2][];
-
     private volatile boolean launched;
 
-    public static int numberOfApprovedTransactionsToStore;
-
     private StorageTransactions storageTransactionInstance = StorageTransactions.instance();
     private StorageBundle storageBundleInstance = StorageBundle.instance();
     private StorageAddresses storageAddressesInstance = StorageAddresses.instance();
     private StorageTags storageTags = StorageTags.instance();
     private StorageApprovers storageApprovers = StorageApprovers.instance();
     private StorageScratchpad storageScratchpad = StorageScratchpad.instance();
+    private StorageLedger storageLedger = StorageLedger.instance();
+
+    private final AbstractStorage[] storages = {storageTransactionInstance, storageBundleInstance, storageAddressesInstance,
+            storageTags, storageApprovers, storageScratchpad, storageLedger};
 
     @Override
     public void init() throws IOException {
 
         synchronized (Storage.class) {
-            storageTransactionInstance.init();
-            storageBundleInstance.init();
-            storageAddressesInstance.init();
-            storageTags.init();
-            storageApprovers.init();
-            storageScratchpad.init();
+            final long beginningTime = System.currentTimeMillis();
+            Files.createDirectories(path("").toAbsolutePath());
+
+            // The files are independent, so they are mapped and validated concurrently
+            final ExecutorService executor = Executors.newFixedThreadPool(storages.length);
+            try {
+                final List<Future<?>> initializations = new ArrayList<>(storages.length);
+                for (final AbstractStorage storage : storages) {
+                    initializations.add(executor.submit(() -> {
+
+                        final long storageBeginningTime = System.currentTimeMillis();
+                        storage.init();
+                        log.info("{} initialized in {} ms", storage.getClass().getSimpleName(), System.currentTimeMillis() - storageBeginningTime);
+                        return null;
+                    }));
+                }
+                for (final Future<?> initialization : initializations) {
+                    initialization.get();
+                }
+
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while initializing the storage", e);
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Initializing the storage failed", e.getCause());
+            } finally {
+                executor.shutdown();
+            }
+
             storageTransactionInstance.updateBundleAddressTagApprovers();
+            StorageJournal.instance().init();
+            StorageFlusher.instance().start(storages);
             launched = true;
+            log.info("Storage initialized in {} ms", System.currentTimeMillis() - beginningTime);
         }
     }
 
@@ -56,12 +103,17 @@ public class Storage extends AbstractStorage {
 
         synchronized (Storage.class) {
             if (launched) {
+                StorageFlusher.instance().stop();
+                StorageFlusher.instance().flush(storages); // The journal isn't needed past this point if everything is on disk
+
                 storageTransactionInstance.shutdown();
                 storageBundleInstance.shutdown();
                 storageAddressesInstance.shutdown();
                 storageTags.shutdown();
                 storageApprovers.shutdown();
                 storageScratchpad.shutdown();
+                storageLedger.shutdown();
+                StorageJournal.instance().shutdown();
 
                 log.info("DB successfully flushed");
             }
@@ -71,18 +123,165 @@ public class Storage extends AbstractStorage {
     void updateBundleAddressTagAndApprovers(final long transactionPointer) {
 
         final Transaction transaction = new Transaction(mainBuffer, transactionPointer);
-        for (int j = 0; j < numberOfApprovedTransactionsToStore; j++) {
-            StorageTransactions.instance().storeTransaction(approvedTransactionsToStore[j], null, false);
+        updateApprovee(transaction.trunkTransaction, transaction.trunkTransactionPointer, transactionPointer);
+        if (!Arrays.equals(transaction.branchTransaction, transaction.trunkTransaction)) {
+            updateApprovee(transaction.branchTransaction, transaction.branchTransactionPointer, transactionPointer);
         }
-        numberOfApprovedTransactionsToStore = 0;
 
         StorageBundle.instance().updateBundle(transactionPointer, transaction);
         StorageAddresses.instance().updateAddresses(transactionPointer, transaction);
         StorageTags.instance().updateTags(transactionPointer, transaction);
-        StorageApprovers.instance().updateApprover(transaction.trunkTransaction, transactionPointer);
-        
-        if (transaction.branchTransactionPointer != transaction.trunkTransactionPointer) {
-        	StorageApprovers.instance().updateApprover(transaction.branchTransaction, transactionPointer);
+    }
+
+    /**
+     * Same as {@link #updateBundleAddressTagAndApprovers(long)} for loaded transactions, every index is updated in the order of its trie.
+     */
+    void updateBundleAddressTagAndApprovers(final List<Transaction> transactions) {
+
+        final List<Transaction> sortedTransactions = new ArrayList<>(transactions);
+
+        sortedTransactions.sort((transaction1, transaction2) -> compareTriePaths(transaction1.trunkTransaction, transaction2.trunkTransaction));
+        for (final Transaction transaction : sortedTransactions) {
+            updateApprovee(transaction.trunkTransaction, transaction.trunkTransactionPointer, transaction.pointer);
+        }
+        sortedTransactions.sort((transaction1, transaction2) -> compareTriePaths(transaction1.branchTransaction, transaction2.branchTransaction));
+        for (final Transaction transaction : sortedTransactions) {
+            if (!Arrays.equals(transaction.branchTransaction, transaction.trunkTransaction)) {
+                updateApprovee(transaction.branchTransaction, transaction.branchTransactionPointer, transaction.pointer);
+            }
+        }
+
+        sortedTransactions.sort((transaction1, transaction2) -> compareTriePaths(transaction1.bundle, transaction2.bundle));
+        for (final Transaction transaction : sortedTransactions) {
+            StorageBundle.instance().updateBundle(transaction.pointer, transaction);
+        }
+        sortedTransactions.sort((transaction1, transaction2) -> compareTriePaths(transaction1.address, transaction2.address));
+        for (final Transaction transaction : sortedTransactions) {
+            StorageAddresses.instance().updateAddresses(transaction.pointer, transaction);
+        }
+        sortedTransactions.sort((transaction1, transaction2) -> compareTriePaths(transaction1.tag, transaction2.tag));
+        for (final Transaction transaction : sortedTransactions) {
+            StorageTags.instance().updateTags(transaction.pointer, transaction);
+        }
+    }
+
+    /**
+     * Same as {@link #updateBundleAddressTagAndApprovers(List)} for transactions which may be indexed already, in part or fully,
+     * like the ones replayed from the journal: a transaction is only appended to the indexes which don't list it yet.
+     * Each affected list is read once per call, so the transactions are best passed in large batches.
+     * The lists of the transactions whose pointers are in "restoredPointers" are also cleared of the entries left by their lost cells.
+     */
+    void reindexBundleAddressTagAndApprovers(final List<Transaction> transactions, final Set<Long> restoredPointers) {
+
+        final Map<ByteBuffer, List<Transaction>> approvees = new LinkedHashMap<>(), bundles = new LinkedHashMap<>(),
+                addresses = new LinkedHashMap<>(), tags = new LinkedHashMap<>();
+        for (final Transaction transaction : transactions) {
+
+            // Prefilling an approvee and clearing its tip flag can be repeated
+            linkApprovee(transaction.trunkTransaction, transaction.trunkTransactionPointer, transaction.pointer);
+            approvees.computeIfAbsent(ByteBuffer.wrap(transaction.trunkTransaction), key -> new ArrayList<>()).add(transaction);
+            if (!Arrays.equals(transaction.branchTransaction, transaction.trunkTransaction)) {
+                linkApprovee(transaction.branchTransaction, transaction.branchTransactionPointer, transaction.pointer);
+                approvees.computeIfAbsent(ByteBuffer.wrap(transaction.branchTransaction), key -> new ArrayList<>()).add(transaction);
+            }
+            bundles.computeIfAbsent(ByteBuffer.wrap(transaction.bundle), key -> new ArrayList<>()).add(transaction);
+            addresses.computeIfAbsent(ByteBuffer.wrap(transaction.address), key -> new ArrayList<>()).add(transaction);
+            tags.computeIfAbsent(ByteBuffer.wrap(transaction.tag), key -> new ArrayList<>()).add(transaction);
+        }
+
+        for (final Map.Entry<ByteBuffer, List<Transaction>> approvee : approvees.entrySet()) {
+            final byte[] hash = approvee.getKey().array();
+            final long approveePointer = StorageApprovers.instance().approveePointer(hash);
+            relist(approvee.getValue(), restoredPointers,
+                    listedTransactions -> StorageApprovers.instance().approveeTransactions(approveePointer, listedTransactions),
+                    pointer -> StorageTransactions.instance().transactionHolds(pointer, hash, Transaction.TRUNK_TRANSACTION_OFFSET)
+                            || StorageTransactions.instance().transactionHolds(pointer, hash, Transaction.BRANCH_TRANSACTION_OFFSET),
+                    (stale, replacements) -> StorageApprovers.instance().replaceStaleApproveeTransactions(approveePointer, stale, replacements),
+                    transaction -> StorageApprovers.instance().updateApprover(hash, transaction.pointer));
+        }
+        for (final Map.Entry<ByteBuffer, List<Transaction>> bundle : bundles.entrySet()) {
+            final byte[] hash = bundle.getKey().array();
+            final long bundlePointer = StorageBundle.instance().bundlePointer(hash);
+            relist(bundle.getValue(), restoredPointers,
+                    listedTransactions -> StorageBundle.instance().bundleTransactions(bundlePointer, listedTransactions),
+                    pointer -> StorageTransactions.instance().transactionHolds(pointer, hash, Transaction.BUNDLE_OFFSET),
+                    (stale, replacements) -> StorageBundle.instance().replaceStaleBundleTransactions(bundlePointer, stale, replacements),
+                    transaction -> StorageBundle.instance().updateBundle(transaction.pointer, transaction));
+        }
+        for (final Map.Entry<ByteBuffer, List<Transaction>> address : addresses.entrySet()) {
+            final byte[] hash = address.getKey().array();
+            final long addressPointer = StorageAddresses.instance().addressPointer(hash);
+            relist(address.getValue(), restoredPointers,
+                    listedTransactions -> StorageAddresses.instance().addressTransactions(addressPointer, 0, listedTransactions),
+                    pointer -> StorageTransactions.instance().transactionHolds(pointer, hash, Transaction.ADDRESS_OFFSET),
+                    (stale, replacements) -> StorageAddresses.instance().replaceStaleAddressTransactions(addressPointer, stale, replacements),
+                    transaction -> StorageAddresses.instance().updateAddresses(transaction.pointer, transaction));
+        }
+        for (final Map.Entry<ByteBuffer, List<Transaction>> tag : tags.entrySet()) {
+            final byte[] hash = tag.getKey().array();
+            final long tagPointer = StorageTags.instance().tagPointer(hash);
+            relist(tag.getValue(), restoredPointers,
+                    listedTransactions -> StorageTags.instance().tagTransactions(tagPointer, listedTransactions),
+                    pointer -> StorageTransactions.instance().transactionHolds(pointer, hash, Transaction.TAG_OFFSET),
+                    (stale, replacements) -> StorageTags.instance().replaceStaleTagTransactions(tagPointer, stale, replacements),
+                    transaction -> StorageTags.instance().updateTags(transaction.pointer, transaction));
+        }
+    }
+
+    /**
+     * Appends the transactions missing from a list. The ones restored at new pointers may still be listed at their old ones,
+     * whose cells may have been reused since, so the entries which don't lead to a transaction of the list are overwritten first.
+     */
+    private static void relist(final List<Transaction> transactions, final Set<Long> restoredPointers, final Consumer<LongConsumer> list,
+            final LongPredicate listable, final BiConsumer<LongPredicate, LongQueue> replaceStale, final Consumer<Transaction> append) {
+
+        final Map<Long, Transaction> missingTransactions = new HashMap<>();
+        final LongQueue missingPointers = new LongQueue();
+        boolean restored = false;
+        for (final Transaction transaction : missingTransactions(transactions, list)) {
+            missingTransactions.put(transaction.pointer, transaction);
+            missingPointers.offer(transaction.pointer);
+            restored |= restoredPointers.contains(transaction.pointer);
+        }
+        if (restored) {
+            replaceStale.accept(listable.negate(), missingPointers);
+        }
+        while (!missingPointers.isEmpty()) {
+            append.accept(missingTransactions.get(missingPointers.poll()));
+        }
+    }
+
+    /**
+     * @return the transactions whose pointers aren't listed, in their original order
+     */
+    private static List<Transaction> missingTransactions(final List<Transaction> transactions, final Consumer<LongConsumer> list) {
+
+        final Set<Long> missingPointers = new HashSet<>();
+        for (final Transaction transaction : transactions) {
+            missingPointers.add(transaction.pointer);
+        }
+        list.accept(missingPointers::remove);
+
+        final List<Transaction> missingTransactions = new ArrayList<>(missingPointers.size());
+        for (final Transaction transaction : transactions) {
+            if (missingPointers.remove(transaction.pointer)) {
+                missingTransactions.add(transaction);
+            }
+        }
+        return missingTransactions;
+    }
+
+    private static void updateApprovee(final byte[] approveeHash, final long approveePointer, final long approverPointer) {
+        linkApprovee(approveeHash, approveePointer, approverPointer);
+        StorageApprovers.instance().updateApprover(approveeHash, approverPointer);
+    }
+
+    private static void linkApprovee(final byte[] approveeHash, final long approveePointer, final long approverPointer) {
+
+        if (approveePointer == 0) { // Only referenced so far, it's prefilled and never becomes a tip
+            StorageTransactions.instance().storeTransaction(approveeHash, null, false);
+        } else if (approveePointer != approverPointer) { // The null transaction approves itself and stays a tip
+            StorageTransactions.instance().clearTipFlag(approveePointer);
         }
     }
     
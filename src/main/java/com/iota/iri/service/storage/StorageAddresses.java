@@ -3,16 +3,20 @@ package com.iota.iri.service.storage;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.iota.iri.model.Hash;
 import com.iota.iri.model.Transaction;
+import com.iota.iri.utils.LongQueue;
 
 public class StorageAddresses extends AbstractStorage {
 
@@ -21,51 +25,62 @@ public class StorageAddresses extends AbstractStorage {
 	private static final StorageAddresses instance = new StorageAddresses();
 	private static final String ADDRESSES_FILE_NAME = "addresses.iri";
 
+    /*
+     * Transactions of an address are first appended to a chain of cells starting at its leaf.
+     * Once the chain gets long, the background compactor rewrites the transactions into runs of contiguous cells holding
+     * zigzag varints of the deltas between consecutive pointers, and the leaf becomes a COMPACTED_SLOT header:
+     * the first and the last cell of the tail chain, the number of transactions in it, the number of runs and a pointer,
+     * number of transactions and number of bytes per run. Newer runs are merged into older ones of at most their size,
+     * so an address has a logarithmic number of runs.
+     */
+    private static final int COMPACTED_SLOT = 2;
+    private static final int TAIL_FIRST_CELL_OFFSET = ZEROTH_POINTER_OFFSET, TAIL_LAST_CELL_OFFSET = TAIL_FIRST_CELL_OFFSET + Long.BYTES;
+    private static final int TAIL_SIZE_OFFSET = TAIL_LAST_CELL_OFFSET + Long.BYTES;
+    private static final int NUMBER_OF_RUNS_OFFSET = TAIL_SIZE_OFFSET + Long.BYTES;
+    private static final int RUNS_OFFSET = NUMBER_OF_RUNS_OFFSET + Long.BYTES, RUN_SIZE = 3 * Long.BYTES;
+    private static final int MAX_NUMBER_OF_RUNS = (CELL_SIZE - RUNS_OFFSET) / RUN_SIZE;
+
+    private static final int POINTERS_PER_CELL = (CELL_SIZE - Long.BYTES) / Long.BYTES; // The last slot links the next cell
+    static final int COMPACTION_THRESHOLD = 4 * POINTERS_PER_CELL;
+
 	private FileChannel addressesChannel;
 	private final ByteBuffer[] addressesChunks = new ByteBuffer[MAX_NUMBER_OF_CHUNKS];
 	private volatile long addressesNextPointer = SUPER_GROUPS_SIZE;
 
+    private final LongQueue addressesToCompact = new LongQueue(); // Leaf pointers, guarded by Storage.class
+    private final Set<Long> queuedAddresses = new HashSet<>(); // The leaves in "addressesToCompact", so each is queued once
+    private volatile Thread compactor;
+
 	@Override
 	public void init() throws IOException {
-		addressesChannel = FileChannel.open(Paths.get(ADDRESSES_FILE_NAME), StandardOpenOption.CREATE,
+		addressesChannel = FileChannel.open(path(ADDRESSES_FILE_NAME), StandardOpenOption.CREATE,
 		        StandardOpenOption.READ, StandardOpenOption.WRITE);
-		addressesChunks[0] = addressesChannel.map(FileChannel.MapMode.READ_WRITE, 0, SUPER_GROUPS_SIZE);
-		final long addressesChannelSize = addressesChannel.size();
-		while (true) {
+		addressesNextPointer = mapChunks(addressesChannel, ADDRESSES_FILE_NAME, addressesChunks, 0);
 
-			if ((addressesNextPointer & (CHUNK_SIZE - 1)) == 0) {
-				addressesChunks[(int) (addressesNextPointer >> 27)] = addressesChannel
-				        .map(FileChannel.MapMode.READ_WRITE, addressesNextPointer, CHUNK_SIZE);
-			}
+		addressesToCompact.clear();
+		queuedAddresses.clear();
+		compactor = new Thread(this::compactAddresses, "Addresses Compactor");
+		compactor.setDaemon(true);
+		compactor.start();
+	}
 
-			if (addressesChannelSize - addressesNextPointer > CHUNK_SIZE) {
-				addressesNextPointer += CHUNK_SIZE;
-			} else {
-
-				addressesChunks[(int) (addressesNextPointer >> 27)].get(mainBuffer);
-				boolean empty = true;
-				for (final int value : mainBuffer) {
-
-					if (value != 0) {
-						empty = false;
-						break;
-					}
-				}
-				if (empty) {
-					break;
-				}
-				addressesNextPointer += CELL_SIZE;
-			}
-		}
+	@Override
+	boolean flushWrites() {
+		return flushDirtyChunks(addressesChunks);
 	}
 
 	@Override
 	public void shutdown() {
-		for (int i = 0; i < MAX_NUMBER_OF_CHUNKS && addressesChunks[i] != null; i++) {
-			log.info("Flushing addresses chunk #" + i);
-			flush(addressesChunks[i]);
+		final Thread compactor = this.compactor;
+		this.compactor = null; // Checked with Storage.class held, so no compaction runs past this point
+		if (compactor != null) {
+			compactor.interrupt();
 		}
+		final boolean flushed = flushWrites();
 		try {
+			if (flushed) {
+				saveHeader(ADDRESSES_FILE_NAME, addressesNextPointer, true);
+			}
 			addressesChannel.close();
 		} catch (IOException e) {
 			log.error("Shutting down Storage Addresses error: ", e);
@@ -98,43 +113,160 @@ public class StorageAddresses extends AbstractStorage {
 	
 	public List<Long> addressTransactions(final long pointer) {
 
-        synchronized (Storage.class) {
         final List<Long> addressTransactions = new LinkedList<>();
+        addressTransactions(pointer, 0, addressTransactions::add);
+        return addressTransactions;
+    }
 
-        if (pointer != 0) {
+    /**
+     * Passes the transactions of an address in the order they were indexed, the first "offset" ones excepted.
+     * Transactions are only ever appended, so a caller can resume from the returned count.
+     *
+     * @return the number of transactions of the address
+     */
+    public long addressTransactions(final long pointer, final long offset, final LongConsumer addressTransactions) {
+
+        synchronized (Storage.class) {
 
-            ((ByteBuffer) addressesChunks[(int) (pointer >> 27)].position((int) (pointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
-            int offset = ZEROTH_POINTER_OFFSET - Long.BYTES;
-            while (true) {
+            if (pointer == 0) {
+                return 0;
+            }
 
-                while ((offset += Long.BYTES) < CELL_SIZE - Long.BYTES) {
+            final ByteBuffer chunk = addressesChunks[(int) (pointer >> 27)];
+            final int cellOffset = (int) (pointer & (CHUNK_SIZE - 1));
+            if (chunk.get(cellOffset + Transaction.TYPE_OFFSET) != COMPACTED_SLOT) {
+                return chainTransactions(pointer, ZEROTH_POINTER_OFFSET, Long.MAX_VALUE, offset, addressTransactions);
+            }
 
-                    final long transactionPointer = value(mainBuffer, offset);
-                    if (transactionPointer == 0) {
-                        break;
-                    } else {
-                        addressTransactions.add(transactionPointer);
-                    }
+            long numberOfTransactions = 0;
+            final long numberOfRuns = value(chunk, cellOffset + NUMBER_OF_RUNS_OFFSET);
+            for (int run = 0; run < numberOfRuns; run++) {
+
+                final int runOffset = cellOffset + RUNS_OFFSET + run * RUN_SIZE;
+                final long runSize = value(chunk, runOffset + Long.BYTES);
+                if (numberOfTransactions + runSize > offset) {
+                    runTransactions(value(chunk, runOffset), runSize, numberOfTransactions < offset ? offset - numberOfTransactions : 0, addressTransactions);
                 }
-                if (offset == CELL_SIZE - Long.BYTES) {
+                numberOfTransactions += runSize;
+            }
+            final long tailSize = value(chunk, cellOffset + TAIL_SIZE_OFFSET);
+            if (tailSize > 0) {
+                chainTransactions(value(chunk, cellOffset + TAIL_FIRST_CELL_OFFSET), 0, tailSize, numberOfTransactions < offset ? offset - numberOfTransactions : 0, addressTransactions);
+            }
+            return numberOfTransactions + tailSize;
+        }
+    }
 
-                    final long nextCellPointer = value(mainBuffer, offset);
-                    if (nextCellPointer == 0) {
-                        break;
-                    } else {
-                        ((ByteBuffer) addressesChunks[(int) (nextCellPointer >> 27)].position((int) (nextCellPointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
-                        offset = -Long.BYTES;
-                    }
-                } else {
+    /**
+     * Walks a chain of cells of raw pointers, read from "offset" in the first one, up to a null pointer or "size" of them.
+     */
+    private long chainTransactions(long pointer, int offset, final long size, final long skippedTransactions, final LongConsumer addressTransactions) {
+
+        long numberOfTransactions = 0;
+        ByteBuffer chunk = addressesChunks[(int) (pointer >> 27)];
+        int cellOffset = (int) (pointer & (CHUNK_SIZE - 1));
+        while (numberOfTransactions < size) {
+
+            if (offset == CELL_SIZE - Long.BYTES) {
+
+                if ((pointer = value(chunk, cellOffset + offset)) == 0) {
                     break;
                 }
+                chunk = addressesChunks[(int) (pointer >> 27)];
+                cellOffset = (int) (pointer & (CHUNK_SIZE - 1));
+                offset = 0;
+            }
+
+            final long transactionPointer = value(chunk, cellOffset + offset);
+            if (transactionPointer == 0) {
+                break;
             }
+            if (numberOfTransactions++ >= skippedTransactions) {
+                addressTransactions.accept(transactionPointer);
+            }
+            offset += Long.BYTES;
         }
-        
-        return addressTransactions;
+        return numberOfTransactions;
+    }
+
+    private void runTransactions(long pointer, final long size, final long skippedTransactions, final LongConsumer addressTransactions) {
+
+        long transactionIndex = 0;
+        for (long i = 0; i < size; i++) {
+
+            long zigzag = 0;
+            int shift = 0;
+            byte value;
+            do {
+                value = addressesChunks[(int) (pointer >> 27)].get((int) (pointer++ & (CHUNK_SIZE - 1)));
+                zigzag |= (long) (value & 0x7F) << shift;
+                shift += 7;
+            } while (value < 0);
+
+            transactionIndex += (zigzag >>> 1) ^ -(zigzag & 1);
+            if (i >= skippedTransactions) {
+                addressTransactions.accept(transactionIndex << 11);
+            }
         }
     }
-	
+
+    /**
+     * Overwrites the listed transactions which "stale" matches with "replacements", see {@link #replaceStalePointers}.
+     * A run holding some is rewritten and forced before the leaf points to the new one, it's only called while replaying the journal.
+     */
+    void replaceStaleAddressTransactions(final long pointer, final LongPredicate stale, final LongQueue replacements) {
+
+        if (pointer == 0) {
+            return;
+        }
+
+        final ByteBuffer chunk = addressesChunks[(int) (pointer >> 27)];
+        final int cellOffset = (int) (pointer & (CHUNK_SIZE - 1));
+        if (chunk.get(cellOffset + Transaction.TYPE_OFFSET) != COMPACTED_SLOT) {
+            replaceStalePointers(addressesChunks, pointer, ZEROTH_POINTER_OFFSET, Long.MAX_VALUE, stale, replacements);
+            return;
+        }
+
+        final long numberOfRuns = value(chunk, cellOffset + NUMBER_OF_RUNS_OFFSET);
+        for (int run = 0; run < numberOfRuns && !replacements.isEmpty(); run++) {
+
+            final int runOffset = cellOffset + RUNS_OFFSET + run * RUN_SIZE;
+            final LongQueue transactions = new LongQueue(), usedReplacements = new LongQueue();
+            runTransactions(value(chunk, runOffset), value(chunk, runOffset + Long.BYTES), 0, transactionPointer -> {
+                if (!replacements.isEmpty() && stale.test(transactionPointer)) {
+                    transactionPointer = replacements.poll();
+                    usedReplacements.offer(transactionPointer);
+                }
+                transactions.offer(transactionPointer);
+            });
+            if (usedReplacements.isEmpty()) {
+                continue;
+            }
+
+            final long runPointer = addressesNextPointer;
+            final long runLength = writeRun(transactions);
+            boolean flushed = true;
+            for (long runChunk = runPointer >> 27; runChunk <= (addressesNextPointer - 1) >> 27 && flushed; runChunk++) {
+                flushed = flush(addressesChunks[(int) runChunk]);
+            }
+            if (!flushed) {
+                log.error("Forcing a rewritten run failed, its stale transactions stay listed");
+                while (!usedReplacements.isEmpty()) {
+                    replacements.offer(usedReplacements.poll()); // Appended instead
+                }
+                continue;
+            }
+            setValue(chunk, runOffset, runPointer);
+            setValue(chunk, runOffset + 2 * Long.BYTES, runLength);
+            markDirty(pointer);
+        }
+
+        final long tailSize = value(chunk, cellOffset + TAIL_SIZE_OFFSET);
+        if (tailSize > 0) {
+            replaceStalePointers(addressesChunks, value(chunk, cellOffset + TAIL_FIRST_CELL_OFFSET), 0, tailSize, stale, replacements);
+        }
+    }
+
 	public void updateAddresses(final long transactionPointer, final Transaction transaction) {
 		{
             long pointer = ((transaction.address[0] + 128) + ((transaction.address[1] + 128) << 8)) << 11, prevPointer = 0;
@@ -149,6 +281,7 @@ public class StorageAddresses extends AbstractStorage {
 
                         setValue(mainBuffer, (transaction.address[depth] + 128) << 3, addressesNextPointer);
                         ((ByteBuffer)addressesChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                        markDirty(prevPointer);
 
                         System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
                         mainBuffer[Transaction.TYPE_OFFSET] = FILLED_SLOT;
@@ -172,6 +305,7 @@ public class StorageAddresses extends AbstractStorage {
                             ((ByteBuffer)addressesChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
                             setValue(mainBuffer, (transaction.address[depth - 1] + 128) << 3, addressesNextPointer);
                             ((ByteBuffer)addressesChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                            markDirty(prevPointer);
 
                             for (int j = depth; j < i; j++) {
 
@@ -197,9 +331,13 @@ public class StorageAddresses extends AbstractStorage {
                         }
                     }
 
-                    if (sameAddress) {
+                    if (sameAddress && mainBuffer[Transaction.TYPE_OFFSET] == COMPACTED_SLOT) {
+                        appendToTail(pointer, transactionPointer);
 
-                        int offset = ZEROTH_POINTER_OFFSET;
+                    } else if (sameAddress) {
+
+                        final long leafPointer = pointer;
+                        int offset = ZEROTH_POINTER_OFFSET, numberOfCells = 1;
                         while (true) {
 
                             while ((offset += Long.BYTES) < CELL_SIZE - Long.BYTES && value(mainBuffer, offset) != 0) {
@@ -213,6 +351,7 @@ public class StorageAddresses extends AbstractStorage {
 
                                     setValue(mainBuffer, offset, addressesNextPointer);
                                     ((ByteBuffer)addressesChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                                    markDirty(pointer);
 
                                     System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
                                     setValue(mainBuffer, 0, transactionPointer);
@@ -223,10 +362,14 @@ public class StorageAddresses extends AbstractStorage {
                                     pointer = nextCellPointer;
                                     ((ByteBuffer)addressesChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
                                     offset = -Long.BYTES;
+                                    if (++numberOfCells == COMPACTION_THRESHOLD / POINTERS_PER_CELL) {
+                                        queueCompaction(leafPointer);
+                                    }
                                 }
                             } else {
                                 setValue(mainBuffer, offset, transactionPointer);
                                 ((ByteBuffer)addressesChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                                markDirty(pointer);
                                 break;
                             }
                         }
@@ -237,13 +380,265 @@ public class StorageAddresses extends AbstractStorage {
         }
 	}
 	
+    private void appendToTail(final long pointer, final long transactionPointer) {
+
+        final ByteBuffer chunk = addressesChunks[(int) (pointer >> 27)];
+        final int cellOffset = (int) (pointer & (CHUNK_SIZE - 1));
+        final long tailSize = value(chunk, cellOffset + TAIL_SIZE_OFFSET);
+        final long lastCellPointer = value(chunk, cellOffset + TAIL_LAST_CELL_OFFSET);
+
+        if (tailSize % POINTERS_PER_CELL == 0) {
+
+            if (tailSize == 0) {
+                setValue(chunk, cellOffset + TAIL_FIRST_CELL_OFFSET, addressesNextPointer);
+            } else {
+                setValue(addressesChunks[(int) (lastCellPointer >> 27)], (int) (lastCellPointer & (CHUNK_SIZE - 1)) + CELL_SIZE - Long.BYTES, addressesNextPointer);
+                markDirty(lastCellPointer);
+            }
+            setValue(chunk, cellOffset + TAIL_LAST_CELL_OFFSET, addressesNextPointer);
+
+            System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
+            setValue(mainBuffer, 0, transactionPointer);
+            appendToAddresses();
+
+        } else {
+            setValue(addressesChunks[(int) (lastCellPointer >> 27)], (int) (lastCellPointer & (CHUNK_SIZE - 1)) + (int) (tailSize % POINTERS_PER_CELL) * Long.BYTES, transactionPointer);
+            markDirty(lastCellPointer);
+        }
+        setValue(chunk, cellOffset + TAIL_SIZE_OFFSET, tailSize + 1);
+        markDirty(pointer);
+
+        if (tailSize + 1 >= COMPACTION_THRESHOLD) {
+            queueCompaction(pointer);
+        }
+    }
+
+    private void queueCompaction(final long pointer) {
+        if (queuedAddresses.add(pointer)) {
+            addressesToCompact.offer(pointer);
+        }
+    }
+
+    private void compactAddresses() {
+
+        while (compactor == Thread.currentThread()) {
+
+            final boolean idle;
+            try {
+                idle = !compactNextAddress();
+            } catch (final RuntimeException e) {
+                log.error("Caught exception on compactAddresses:", e);
+                continue;
+            }
+            if (idle) {
+                try {
+                    Thread.sleep(1000);
+                } catch (final InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Compacts the address queued first which still needs it.
+     *
+     * @return false if no address needed it
+     */
+    boolean compactNextAddress() {
+
+        final Compaction compaction = startCompaction();
+        if (compaction == null) {
+            return false;
+        }
+        finishCompaction(compaction);
+        return true;
+    }
+
+    /**
+     * A run written for an address whose leaf still points to the old cells.
+     */
+    static class Compaction {
+
+        final long pointer;
+        final boolean compacted;
+        final int numberOfRuns, numberOfOldRuns;
+        final long tailFirstCell, tailSize; // The size of the whole chain if the leaf isn't compacted yet
+        final long runPointer, runEnd, numberOfTransactions, runLength;
+
+        Compaction(final long pointer, final boolean compacted, final int numberOfRuns, final int numberOfOldRuns, final long tailFirstCell, final long tailSize,
+                final long runPointer, final long runEnd, final long numberOfTransactions, final long runLength) {
+            this.pointer = pointer;
+            this.compacted = compacted;
+            this.numberOfRuns = numberOfRuns;
+            this.numberOfOldRuns = numberOfOldRuns;
+            this.tailFirstCell = tailFirstCell;
+            this.tailSize = tailSize;
+            this.runPointer = runPointer;
+            this.runEnd = runEnd;
+            this.numberOfTransactions = numberOfTransactions;
+            this.runLength = runLength;
+        }
+    }
+
+    /**
+     * Writes the run of the address queued first which still needs one.
+     * The tail, or the whole chain if the leaf isn't compacted yet, is moved into it together with the newest runs that aren't larger.
+     *
+     * @return null if no address needed it
+     */
+    Compaction startCompaction() {
+
+        synchronized (Storage.class) {
+
+            while (compactor != null && !addressesToCompact.isEmpty()) {
+
+                final long pointer = addressesToCompact.poll();
+                queuedAddresses.remove(pointer);
+
+                final ByteBuffer chunk = addressesChunks[(int) (pointer >> 27)];
+                final int cellOffset = (int) (pointer & (CHUNK_SIZE - 1));
+                final boolean compacted = chunk.get(cellOffset + Transaction.TYPE_OFFSET) == COMPACTED_SLOT;
+
+                final LongQueue transactions = new LongQueue();
+                int numberOfRuns = 0, numberOfOldRuns = 0;
+                long tailFirstCell = 0, tailSize = 0;
+                if (compacted) {
+
+                    tailSize = value(chunk, cellOffset + TAIL_SIZE_OFFSET);
+                    if (tailSize < COMPACTION_THRESHOLD) {
+                        continue; // Requested more than once
+                    }
+                    tailFirstCell = value(chunk, cellOffset + TAIL_FIRST_CELL_OFFSET);
+
+                    numberOfOldRuns = (int) value(chunk, cellOffset + NUMBER_OF_RUNS_OFFSET);
+                    long numberOfMergedTransactions = tailSize;
+                    for (numberOfRuns = numberOfOldRuns; numberOfRuns > 0; numberOfRuns--) {
+
+                        final long runSize = value(chunk, cellOffset + RUNS_OFFSET + (numberOfRuns - 1) * RUN_SIZE + Long.BYTES);
+                        if (runSize > numberOfMergedTransactions && numberOfRuns < MAX_NUMBER_OF_RUNS) {
+                            break;
+                        }
+                        numberOfMergedTransactions += runSize;
+                    }
+                    for (int run = numberOfRuns; run < numberOfOldRuns; run++) {
+                        final int runOffset = cellOffset + RUNS_OFFSET + run * RUN_SIZE;
+                        runTransactions(value(chunk, runOffset), value(chunk, runOffset + Long.BYTES), 0, transactions::offer);
+                    }
+                    chainTransactions(tailFirstCell, 0, tailSize, 0, transactions::offer);
+
+                } else {
+                    tailSize = chainTransactions(pointer, ZEROTH_POINTER_OFFSET, Long.MAX_VALUE, 0, transactions::offer);
+                }
+
+                final long numberOfTransactions = transactions.size();
+                final long runPointer = addressesNextPointer;
+                final long runLength = writeRun(transactions);
+                return new Compaction(pointer, compacted, numberOfRuns, numberOfOldRuns, tailFirstCell, tailSize,
+                        runPointer, addressesNextPointer, numberOfTransactions, runLength);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Forces the run, without holding Storage.class unless the caller does, then switches the leaf to it.
+     * The leaf is switched only once the run is on disk, until then the old cells stay valid.
+     * Otherwise a crash could persist the new leaf without its run and lose the transactions of the address.
+     * Transactions appended to the address meanwhile are moved to the new tail.
+     */
+    void finishCompaction(final Compaction compaction) {
+
+        for (long runChunk = compaction.runPointer >> 27; runChunk <= (compaction.runEnd - 1) >> 27; runChunk++) {
+            if (!flush(addressesChunks[(int) runChunk])) {
+                log.error("Forcing a compacted run failed, the address stays uncompacted");
+                return; // Queued again by the next transaction of the address
+            }
+        }
+
+        synchronized (Storage.class) {
+
+            final long pointer = compaction.pointer;
+            final ByteBuffer chunk = addressesChunks[(int) (pointer >> 27)];
+            final int cellOffset = (int) (pointer & (CHUNK_SIZE - 1));
+            if (compactor == null || (chunk.get(cellOffset + Transaction.TYPE_OFFSET) == COMPACTED_SLOT) != compaction.compacted
+                    || compaction.compacted && (value(chunk, cellOffset + NUMBER_OF_RUNS_OFFSET) != compaction.numberOfOldRuns
+                    || value(chunk, cellOffset + TAIL_FIRST_CELL_OFFSET) != compaction.tailFirstCell)) {
+                return; // Shut down or compacted by another caller meanwhile, the run is left unused
+            }
+
+            final LongQueue appendedTransactions = new LongQueue();
+            if (compaction.compacted) {
+                chainTransactions(compaction.tailFirstCell, 0, value(chunk, cellOffset + TAIL_SIZE_OFFSET), compaction.tailSize, appendedTransactions::offer);
+            } else {
+                chainTransactions(pointer, ZEROTH_POINTER_OFFSET, Long.MAX_VALUE, compaction.tailSize, appendedTransactions::offer);
+            }
+
+            ((ByteBuffer) chunk.position(cellOffset)).get(mainBuffer);
+            final int runOffset = RUNS_OFFSET + compaction.numberOfRuns * RUN_SIZE;
+            if (compaction.compacted) {
+                System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, runOffset + RUN_SIZE, CELL_SIZE - runOffset - RUN_SIZE);
+            } else {
+                System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, ZEROTH_POINTER_OFFSET, CELL_SIZE - ZEROTH_POINTER_OFFSET);
+                mainBuffer[Transaction.TYPE_OFFSET] = COMPACTED_SLOT;
+            }
+            setValue(mainBuffer, TAIL_FIRST_CELL_OFFSET, 0);
+            setValue(mainBuffer, TAIL_LAST_CELL_OFFSET, 0);
+            setValue(mainBuffer, TAIL_SIZE_OFFSET, 0);
+            setValue(mainBuffer, NUMBER_OF_RUNS_OFFSET, compaction.numberOfRuns + 1);
+            setValue(mainBuffer, runOffset, compaction.runPointer);
+            setValue(mainBuffer, runOffset + Long.BYTES, compaction.numberOfTransactions);
+            setValue(mainBuffer, runOffset + 2 * Long.BYTES, compaction.runLength);
+            ((ByteBuffer) chunk.position(cellOffset)).put(mainBuffer);
+            markDirty(pointer);
+
+            while (!appendedTransactions.isEmpty()) {
+                appendToTail(pointer, appendedTransactions.poll());
+            }
+        }
+    }
+
+    /**
+     * Appends the pointers as zigzag varints of their deltas in cell units.
+     *
+     * @return the number of bytes written
+     */
+    private long writeRun(final LongQueue transactions) {
+
+        System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
+        long runLength = 0, previousTransactionIndex = 0;
+        int offset = 0;
+        while (!transactions.isEmpty()) {
+
+            final long transactionIndex = transactions.poll() >> 11;
+            final long delta = transactionIndex - previousTransactionIndex;
+            previousTransactionIndex = transactionIndex;
+
+            long zigzag = (delta << 1) ^ (delta >> 63);
+            do {
+                mainBuffer[offset++] = (byte) ((zigzag & 0x7F) | (zigzag >>> 7 == 0 ? 0 : 0x80));
+                runLength++;
+                if (offset == CELL_SIZE) {
+                    appendToAddresses();
+                    System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
+                    offset = 0;
+                }
+            } while ((zigzag >>>= 7) != 0);
+        }
+        if (offset > 0) {
+            appendToAddresses();
+        }
+        return runLength;
+    }
+
     private void appendToAddresses() {
 
         ((ByteBuffer)addressesChunks[(int)(addressesNextPointer >> 27)].position((int)(addressesNextPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+        markDirty(addressesNextPointer);
         if (((addressesNextPointer += CELL_SIZE) & (CHUNK_SIZE - 1)) == 0) {
 
             try {
-                addressesChunks[(int)(addressesNextPointer >> 27)] = addressesChannel.map(FileChannel.MapMode.READ_WRITE, addressesNextPointer, CHUNK_SIZE);
+                addressesChunks[(int)(addressesNextPointer >> 27)] = mapChunk(addressesChannel, addressesNextPointer);
             } catch (final IOException e) {
             	log.error("Caught exception on appendToAddresses:", e);
             }
@@ -3,15 +3,17 @@ package com.iota.iri.service.storage;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.iota.iri.model.Transaction;
+import com.iota.iri.utils.LongQueue;
 
 public class StorageApprovers extends AbstractStorage {
 
@@ -26,45 +28,25 @@ public class StorageApprovers extends AbstractStorage {
 
 	@Override
 	public void init() throws IOException {
-		approversChannel = FileChannel.open(Paths.get(APPROVERS_FILE_NAME), 
+		approversChannel = FileChannel.open(path(APPROVERS_FILE_NAME), 
 				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
 		
-		approversChunks[0] = approversChannel.map(FileChannel.MapMode.READ_WRITE, 0, SUPER_GROUPS_SIZE);
-		final long approversChannelSize = approversChannel.size();
-		while (true) {
-
-			if ((approversNextPointer & (CHUNK_SIZE - 1)) == 0) {
-				approversChunks[(int) (approversNextPointer >> 27)] = approversChannel
-				        .map(FileChannel.MapMode.READ_WRITE, approversNextPointer, CHUNK_SIZE);
-			}
-			if (approversChannelSize - approversNextPointer > CHUNK_SIZE) {
-				approversNextPointer += CHUNK_SIZE;
-			} else {
-				approversChunks[(int) (approversNextPointer >> 27)].get(mainBuffer);
-				boolean empty = true;
-				for (final int value : mainBuffer) {
-
-					if (value != 0) {
-						empty = false;
-						break;
-					}
-				}
-				if (empty) {
-					break;
-				}
-				approversNextPointer += CELL_SIZE;
-			}
-		}
+		approversNextPointer = mapChunks(approversChannel, APPROVERS_FILE_NAME, approversChunks, 0);
 	}
 
+    @Override
+    boolean flushWrites() {
+        return flushDirtyChunks(approversChunks);
+    }
+
 	@Override
 	public void shutdown() {
-        for (int i = 0; i < MAX_NUMBER_OF_CHUNKS && approversChunks[i] != null; i++) {
-        	log.info("Flushing approvers chunk #" + i);
-            flush(approversChunks[i]);
-        }
+        final boolean flushed = flushWrites();
 
         try {
+            if (flushed) {
+                saveHeader(APPROVERS_FILE_NAME, approversNextPointer, true);
+            }
             approversChannel.close();
         } catch (final Exception e) {
         	log.error("Shutting down Storage Approvers error: ", e);
@@ -101,8 +83,14 @@ public class StorageApprovers extends AbstractStorage {
 
     public List<Long> approveeTransactions(final long pointer) {
 
-    	synchronized (Storage.class) {
         final List<Long> approveeTransactions = new LinkedList<>();
+        approveeTransactions(pointer, approveeTransactions::add);
+        return approveeTransactions;
+    }
+
+    public void approveeTransactions(final long pointer, final LongConsumer approveeTransactions) {
+
+    	synchronized (Storage.class) {
 
         if (pointer != 0) {
 
@@ -116,7 +104,7 @@ public class StorageApprovers extends AbstractStorage {
                     if (transactionPointer == 0) {
                         break;
                     } else {
-                        approveeTransactions.add(transactionPointer);
+                        approveeTransactions.accept(transactionPointer);
                     }
                 }
                 if (offset == CELL_SIZE - Long.BYTES) {
@@ -133,24 +121,32 @@ public class StorageApprovers extends AbstractStorage {
                 }
             }
         }
-
-        return approveeTransactions;
     	}
     }
 
     private void appendToApprovers() {
 
         ((ByteBuffer)approversChunks[(int)(approversNextPointer >> 27)].position((int)(approversNextPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+        markDirty(approversNextPointer);
         if (((approversNextPointer += CELL_SIZE) & (CHUNK_SIZE - 1)) == 0) {
 
             try {
-                approversChunks[(int)(approversNextPointer >> 27)] = approversChannel.map(FileChannel.MapMode.READ_WRITE, approversNextPointer, CHUNK_SIZE);
+                approversChunks[(int)(approversNextPointer >> 27)] = mapChunk(approversChannel, approversNextPointer);
             } catch (final IOException e) {
             	log.error("Caught exception on appendToApprovers:", e);
             }
         }
     }
     
+    /**
+     * Overwrites the listed transactions which "stale" matches with "replacements", see {@link #replaceStalePointers}.
+     */
+    void replaceStaleApproveeTransactions(final long pointer, final LongPredicate stale, final LongQueue replacements) {
+        if (pointer != 0) {
+            replaceStalePointers(approversChunks, pointer, ZEROTH_POINTER_OFFSET, Long.MAX_VALUE, stale, replacements);
+        }
+    }
+
     public void updateApprover(final byte[] hash, final long transactionPointer) {
 
         long pointer = ((hash[0] + 128) + ((hash[1] + 128) << 8)) << 11, prevPointer = 0;
@@ -165,6 +161,7 @@ public class StorageApprovers extends AbstractStorage {
 
                     setValue(mainBuffer, (hash[depth] + 128) << 3, approversNextPointer);
                     ((ByteBuffer)approversChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                    markDirty(prevPointer);
 
                     System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
                     mainBuffer[Transaction.TYPE_OFFSET] = FILLED_SLOT;
@@ -186,6 +183,7 @@ public class StorageApprovers extends AbstractStorage {
                         ((ByteBuffer)approversChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
                         setValue(mainBuffer, (hash[depth - 1] + 128) << 3, approversNextPointer);
                         ((ByteBuffer)approversChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                        markDirty(prevPointer);
 
                         for (int j = depth; j < i; j++) {
 
@@ -221,6 +219,7 @@ public class StorageApprovers extends AbstractStorage {
 
                             setValue(mainBuffer, offset, approversNextPointer);
                             ((ByteBuffer)approversChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                            markDirty(pointer);
 
                             System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
                             setValue(mainBuffer, 0, transactionPointer);
@@ -235,6 +234,7 @@ public class StorageApprovers extends AbstractStorage {
                     } else {
                         setValue(mainBuffer, offset, transactionPointer);
                         ((ByteBuffer)approversChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                        markDirty(pointer);
                         return;
                     }
                 }
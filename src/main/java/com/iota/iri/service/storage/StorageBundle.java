@@ -3,15 +3,17 @@ package com.iota.iri.service.storage;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.iota.iri.model.Transaction;
+import com.iota.iri.utils.LongQueue;
 
 public class StorageBundle extends AbstractStorage {
 
@@ -27,48 +29,25 @@ public class StorageBundle extends AbstractStorage {
 	@Override
 	public void init() throws IOException {
 
-		bundlesChannel = FileChannel.open(Paths.get(BUNDLES_FILE_NAME), StandardOpenOption.CREATE,
+		bundlesChannel = FileChannel.open(path(BUNDLES_FILE_NAME), StandardOpenOption.CREATE,
 		        StandardOpenOption.READ, StandardOpenOption.WRITE);
-		bundlesChunks[0] = bundlesChannel.map(FileChannel.MapMode.READ_WRITE, 0, SUPER_GROUPS_SIZE);
-		final long bundlesChannelSize = bundlesChannel.size();
-		while (true) {
+		bundlesNextPointer = mapChunks(bundlesChannel, BUNDLES_FILE_NAME, bundlesChunks, 0);
 
-			if ((bundlesNextPointer & (CHUNK_SIZE - 1)) == 0) {
-				bundlesChunks[(int) (bundlesNextPointer >> 27)] = bundlesChannel.map(FileChannel.MapMode.READ_WRITE,
-				        bundlesNextPointer, CHUNK_SIZE);
-			}
-
-			if (bundlesChannelSize - bundlesNextPointer > CHUNK_SIZE) {
-				bundlesNextPointer += CHUNK_SIZE;
-
-			} else {
-
-				bundlesChunks[(int) (bundlesNextPointer >> 27)].get(mainBuffer);
-				boolean empty = true;
-				for (final int value : mainBuffer) {
-
-					if (value != 0) {
-						empty = false;
-						break;
-					}
-				}
-				if (empty) {
-					break;
-				}
-				bundlesNextPointer += CELL_SIZE;
-			}
-		}
+	}
 
+	@Override
+	boolean flushWrites() {
+		return flushDirtyChunks(bundlesChunks);
 	}
 
 	@Override
 	public void shutdown() {
-		for (int i = 0; i < MAX_NUMBER_OF_CHUNKS && bundlesChunks[i] != null; i++) {
-			log.info("Flushing bundles chunk #" + i);
-			flush(bundlesChunks[i]);
-		}
+		final boolean flushed = flushWrites();
 
 		try {
+			if (flushed) {
+				saveHeader(BUNDLES_FILE_NAME, bundlesNextPointer, true);
+			}
 			bundlesChannel.close();
 		} catch (IOException e) {
 			log.error("Shutting down Storage Bundle error: ", e);
@@ -102,8 +81,15 @@ public class StorageBundle extends AbstractStorage {
 
 
     public List<Long> bundleTransactions(final long pointer) {
-    	synchronized (Storage.class) {
+
         final List<Long> bundleTransactions = new LinkedList<>();
+        bundleTransactions(pointer, bundleTransactions::add);
+        return bundleTransactions;
+    }
+
+    public void bundleTransactions(final long pointer, final LongConsumer bundleTransactions) {
+
+    	synchronized (Storage.class) {
 
         if (pointer != 0) {
 
@@ -117,7 +103,7 @@ public class StorageBundle extends AbstractStorage {
                     if (transactionPointer == 0) {
                         break;
                     } else {
-                        bundleTransactions.add(transactionPointer);
+                        bundleTransactions.accept(transactionPointer);
                     }
                 }
                 if (offset == CELL_SIZE - Long.BYTES) {
@@ -134,10 +120,18 @@ public class StorageBundle extends AbstractStorage {
                 }
             }
         }
-        return bundleTransactions;
     	}
     }
     
+    /**
+     * Overwrites the listed transactions which "stale" matches with "replacements", see {@link #replaceStalePointers}.
+     */
+    void replaceStaleBundleTransactions(final long pointer, final LongPredicate stale, final LongQueue replacements) {
+        if (pointer != 0) {
+            replaceStalePointers(bundlesChunks, pointer, ZEROTH_POINTER_OFFSET, Long.MAX_VALUE, stale, replacements);
+        }
+    }
+
     public void updateBundle(final long transactionPointer, final Transaction transaction) {
 		{
             long pointer = ((transaction.bundle[0] + 128) + ((transaction.bundle[1] + 128) << 8)) << 11, prevPointer = 0;
@@ -152,6 +146,7 @@ public class StorageBundle extends AbstractStorage {
 
                         setValue(mainBuffer, (transaction.bundle[depth] + 128) << 3, bundlesNextPointer);
                         ((ByteBuffer)bundlesChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                        markDirty(prevPointer);
 
                         emptyMainBuffer();
                         mainBuffer[Transaction.TYPE_OFFSET] = FILLED_SLOT;
@@ -174,6 +169,7 @@ public class StorageBundle extends AbstractStorage {
                             ((ByteBuffer)bundlesChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
                             setValue(mainBuffer, (transaction.bundle[depth - 1] + 128) << 3, bundlesNextPointer);
                             ((ByteBuffer)bundlesChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                            markDirty(prevPointer);
 
                             for (int j = depth; j < i; j++) {
                                 emptyMainBuffer();
@@ -214,6 +210,7 @@ public class StorageBundle extends AbstractStorage {
 
                                     setValue(mainBuffer, offset, bundlesNextPointer);
                                     ((ByteBuffer)bundlesChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                                    markDirty(pointer);
 
                                     System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
                                     setValue(mainBuffer, 0, transactionPointer);
@@ -230,6 +227,7 @@ public class StorageBundle extends AbstractStorage {
                             } else {
                                 setValue(mainBuffer, offset, transactionPointer);
                                 ((ByteBuffer)bundlesChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                                markDirty(pointer);
                                 break;
                             }
                         }
@@ -244,10 +242,11 @@ public class StorageBundle extends AbstractStorage {
 	private void appendToBundles() {
 
         ((ByteBuffer)bundlesChunks[(int)(bundlesNextPointer >> 27)].position((int)(bundlesNextPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+        markDirty(bundlesNextPointer);
         if (((bundlesNextPointer += CELL_SIZE) & (CHUNK_SIZE - 1)) == 0) {
 
             try {
-                bundlesChunks[(int)(bundlesNextPointer >> 27)] = bundlesChannel.map(FileChannel.MapMode.READ_WRITE, bundlesNextPointer, CHUNK_SIZE);
+                bundlesChunks[(int)(bundlesNextPointer >> 27)] = mapChunk(bundlesChannel, bundlesNextPointer);
             } catch (final IOException e) {
             	log.error("Caught exception on appendToBundles:", e);
             }
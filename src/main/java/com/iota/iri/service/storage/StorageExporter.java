@@ -0,0 +1,178 @@
+package com.iota.iri.service.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.iota.iri.model.Transaction;
+
+/**
+ * Streams the stored transactions in pointer order while the node keeps running.
+ *
+ * The stream starts with {@link #MAGIC} and {@link #VERSION}, followed by frames made of the number of transactions,
+ * the compressed length, the CRC32 of the uncompressed payload and the deflated {@link Transaction#BYTES_SIZE} bytes
+ * of every transaction. A frame of zero transactions ends the stream, so a truncated copy is told apart from a complete one.
+ * An instance exports once.
+ */
+public class StorageExporter {
+
+    public static final int MAGIC = 0x49524958; // "IRIX"
+    public static final int VERSION = 1;
+
+    static final int MAX_NUMBER_OF_TRANSACTIONS_PER_FRAME = 256;
+
+    private static final long FIRST_TRANSACTION_POINTER = AbstractStorage.CELLS_OFFSET - AbstractStorage.SUPER_GROUPS_OFFSET + AbstractStorage.CELL_SIZE; // The first cell holds the null transaction
+
+    private final byte[] payload = new byte[MAX_NUMBER_OF_TRANSACTIONS_PER_FRAME * Transaction.BYTES_SIZE];
+    private final byte[] compressedPayload = new byte[payload.length + (payload.length >> 6) + 64];
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Exports the transactions stored so far, only the ones confirmed by a milestone of the range if it isn't [0, {@link Integer#MAX_VALUE}].
+     *
+     * @return the number of exported transactions
+     */
+    public long exportTransactions(final OutputStream output, final int fromMilestoneIndex, final int toMilestoneIndex) throws IOException {
+
+        final DataOutputStream stream = new DataOutputStream(output);
+        stream.writeInt(MAGIC);
+        stream.writeInt(VERSION);
+
+        final boolean confirmedOnly = fromMilestoneIndex > 0 || toMilestoneIndex < Integer.MAX_VALUE;
+        long numberOfExportedTransactions = 0;
+        int numberOfTransactions = 0;
+        try {
+            final long lastPointer = StorageTransactions.transactionsNextPointer;
+            for (long pointer = FIRST_TRANSACTION_POINTER; pointer < lastPointer; pointer += AbstractStorage.CELL_SIZE) {
+
+                final byte[] cell = StorageTransactions.instance().loadTransactionsCell(pointer);
+                if (cell[Transaction.TYPE_OFFSET] != AbstractStorage.FILLED_SLOT) {
+                    continue;
+                }
+                final long milestoneIndex = AbstractStorage.value(cell, Transaction.CONFIRMING_MILESTONE_INDEX_OFFSET);
+                if (confirmedOnly && (milestoneIndex == 0 || milestoneIndex < fromMilestoneIndex || milestoneIndex > toMilestoneIndex)) {
+                    continue;
+                }
+
+                System.arraycopy(cell, Transaction.BYTES_OFFSET, payload, numberOfTransactions * Transaction.BYTES_SIZE, Transaction.BYTES_SIZE);
+                if (++numberOfTransactions == MAX_NUMBER_OF_TRANSACTIONS_PER_FRAME) {
+                    writeFrame(stream, numberOfTransactions);
+                    numberOfExportedTransactions += numberOfTransactions;
+                    numberOfTransactions = 0;
+                }
+            }
+            if (numberOfTransactions > 0) {
+                writeFrame(stream, numberOfTransactions);
+                numberOfExportedTransactions += numberOfTransactions;
+            }
+            writeFrame(stream, 0);
+            stream.flush();
+
+        } finally {
+            deflater.end();
+        }
+        return numberOfExportedTransactions;
+    }
+
+    private void writeFrame(final DataOutputStream stream, final int numberOfTransactions) throws IOException {
+
+        final int length = numberOfTransactions * Transaction.BYTES_SIZE;
+
+        crc.reset();
+        crc.update(payload, 0, length);
+
+        deflater.reset();
+        deflater.setInput(payload, 0, length);
+        deflater.finish();
+        final int compressedLength = deflater.deflate(compressedPayload);
+        if (!deflater.finished()) {
+            throw new IllegalStateException("Frame buffer too small");
+        }
+
+        stream.writeInt(numberOfTransactions);
+        stream.writeInt(compressedLength);
+        stream.writeInt((int) crc.getValue());
+        stream.write(compressedPayload, 0, compressedLength);
+    }
+
+    /**
+     * Reads the frames written by {@link StorageExporter} once the magic number has been consumed.
+     * An instance must not be shared between threads.
+     */
+    public static class FrameReader implements AutoCloseable {
+
+        private final DataInputStream stream;
+        private final byte[] compressedPayload = new byte[MAX_NUMBER_OF_TRANSACTIONS_PER_FRAME * Transaction.BYTES_SIZE * 2];
+        private final Inflater inflater = new Inflater();
+        private final CRC32 crc = new CRC32();
+        private int numberOfReadFrames;
+
+        public FrameReader(final DataInputStream stream) throws IOException {
+
+            this.stream = stream;
+
+            final int version = stream.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported export version " + version);
+            }
+        }
+
+        /**
+         * @return the bytes of the transactions of the next frame, an empty array at the end of the stream
+         */
+        public byte[] read() throws IOException {
+
+            final int numberOfTransactions, compressedLength, checksum;
+            try {
+                numberOfTransactions = stream.readInt();
+                compressedLength = stream.readInt();
+                checksum = stream.readInt();
+            } catch (final EOFException e) {
+                throw new IOException("Export truncated after frame #" + numberOfReadFrames, e);
+            }
+            if (numberOfTransactions < 0 || numberOfTransactions > MAX_NUMBER_OF_TRANSACTIONS_PER_FRAME
+                    || compressedLength < 0 || compressedLength > compressedPayload.length) {
+                throw new IOException("Corrupted header of frame #" + numberOfReadFrames);
+            }
+            try {
+                stream.readFully(compressedPayload, 0, compressedLength);
+            } catch (final EOFException e) {
+                throw new IOException("Export truncated in frame #" + numberOfReadFrames, e);
+            }
+
+            final byte[] payload = new byte[numberOfTransactions * Transaction.BYTES_SIZE];
+            if (numberOfTransactions > 0) {
+                inflater.reset();
+                inflater.setInput(compressedPayload, 0, compressedLength);
+                try {
+                    if (inflater.inflate(payload) != payload.length) {
+                        throw new IOException("Corrupted payload of frame #" + numberOfReadFrames);
+                    }
+                } catch (final DataFormatException e) {
+                    throw new IOException("Corrupted payload of frame #" + numberOfReadFrames, e);
+                }
+            }
+            crc.reset();
+            crc.update(payload, 0, payload.length);
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Checksum mismatch in frame #" + numberOfReadFrames);
+            }
+
+            numberOfReadFrames++;
+            return payload;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            stream.close();
+        }
+    }
+}
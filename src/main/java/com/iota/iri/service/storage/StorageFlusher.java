@@ -0,0 +1,166 @@
+package com.iota.iri.service.storage;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+
+/**
+ * Forces the chunks written since the previous flush once the oldest unflushed write is older than
+ * {@link DefaultConfSettings#DB_FLUSH_INTERVAL} seconds, or once {@link DefaultConfSettings#DB_FLUSH_THRESHOLD} megabytes are waiting.
+ * It bounds the part of the {@link StorageJournal} to replay after a crash, and leaves little to force at shutdown.
+ * It also syncs the journal when it isn't synced by each commit.
+ *
+ * Written bytes are counted in whole cells, as a cell is the unit the storages write.
+ */
+public class StorageFlusher {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageFlusher.class);
+
+    private static final long POLLING_INTERVAL = 100;
+
+    private final AtomicLong numberOfUnflushedBytes = new AtomicLong();
+    private final AtomicLong oldestUnflushedWriteTime = new AtomicLong(); // 0 once everything is flushed
+
+    // The writes being forced still count as unflushed
+    private volatile long numberOfFlushingBytes, oldestFlushingWriteTime;
+    private volatile long lastFlushDuration;
+
+    private volatile Thread flusher;
+
+    void written(final int numberOfBytes) {
+
+        if (numberOfUnflushedBytes.getAndAdd(numberOfBytes) == 0) {
+            oldestUnflushedWriteTime.compareAndSet(0, System.currentTimeMillis());
+        }
+    }
+
+    void start(final AbstractStorage[] storages) {
+
+        flusher = new Thread(() -> flushPeriodically(storages), "Storage Flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Waits for a running flush to complete, the storages flush the rest at their shutdown.
+     */
+    void stop() {
+
+        final Thread flusher = this.flusher;
+        this.flusher = null;
+        if (flusher != null) {
+            flusher.interrupt();
+            try {
+                flusher.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void flushPeriodically(final AbstractStorage[] storages) {
+
+        final long interval = Configuration.integer(DefaultConfSettings.DB_FLUSH_INTERVAL) * 1000L;
+        final long threshold = Configuration.integer(DefaultConfSettings.DB_FLUSH_THRESHOLD) * (1L << 20);
+
+        final long journalSyncInterval = StorageJournal.instance().syncInterval();
+        final long pollingInterval = journalSyncInterval > 0 ? Math.min(POLLING_INTERVAL, journalSyncInterval) : POLLING_INTERVAL;
+
+        while (flusher == Thread.currentThread()) {
+
+            try {
+                StorageJournal.instance().syncPeriodically();
+            } catch (final RuntimeException e) {
+                log.error("Caught exception on journal sync:", e);
+            }
+
+            final long oldestWriteTime = oldestUnflushedWriteTime.get();
+            if (oldestWriteTime != 0 && (System.currentTimeMillis() - oldestWriteTime >= interval || numberOfUnflushedBytes.get() >= threshold)) {
+                flush(storages);
+            } else {
+                try {
+                    Thread.sleep(pollingInterval);
+                } catch (final InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checkpoints the journal: the segments written before the flush are deleted if all the storages are flushed.
+     *
+     * @return true if all the storages are flushed
+     */
+    boolean flush(final AbstractStorage[] storages) {
+
+        long journalSegmentNumber;
+        try {
+            journalSegmentNumber = StorageJournal.instance().rotate();
+        } catch (final IOException e) {
+            log.error("Caught exception on journal rotation:", e);
+            journalSegmentNumber = 0;
+        }
+
+        final long beginningTime = System.currentTimeMillis();
+        final long oldestWriteTime = oldestFlushingWriteTime = oldestUnflushedWriteTime.getAndSet(0);
+        final long numberOfBytes = numberOfFlushingBytes = numberOfUnflushedBytes.getAndSet(0);
+
+        boolean flushed = true;
+        for (final AbstractStorage storage : storages) {
+            try {
+                flushed &= storage.flushWrites();
+            } catch (final RuntimeException e) {
+                log.error("Caught exception on flush:", e);
+                flushed = false;
+            }
+        }
+        if (!flushed) { // The chunks stay dirty and are retried with the next flush
+            numberOfUnflushedBytes.addAndGet(numberOfBytes);
+            oldestUnflushedWriteTime.accumulateAndGet(oldestWriteTime, (time1, time2) -> time1 == 0 || time2 < time1 ? time2 : time1);
+            log.warn("Some storage chunks couldn't be flushed");
+        } else {
+            try {
+                StorageJournal.instance().deleteSegmentsBefore(journalSegmentNumber);
+            } catch (final IOException e) {
+                log.error("Caught exception on journal segments deletion:", e);
+            }
+        }
+        numberOfFlushingBytes = 0;
+        oldestFlushingWriteTime = 0;
+
+        lastFlushDuration = System.currentTimeMillis() - beginningTime;
+        log.debug("{} bytes flushed in {} ms", numberOfBytes, lastFlushDuration);
+        return flushed;
+    }
+
+    /**
+     * @return the age in milliseconds of the oldest write not known to be on disk, 0 if there is none
+     */
+    public long flushLag() {
+
+        final long oldestWriteTime = oldestFlushingWriteTime != 0 ? oldestFlushingWriteTime : oldestUnflushedWriteTime.get();
+        return oldestWriteTime == 0 ? 0 : System.currentTimeMillis() - oldestWriteTime;
+    }
+
+    public long numberOfUnflushedBytes() {
+        return numberOfUnflushedBytes.get() + numberOfFlushingBytes;
+    }
+
+    public long lastFlushDuration() {
+        return lastFlushDuration;
+    }
+
+    private static final StorageFlusher instance = new StorageFlusher();
+
+    private StorageFlusher() {}
+
+    public static StorageFlusher instance() {
+        return instance;
+    }
+}
@@ -0,0 +1,252 @@
+package com.iota.iri.service.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.iota.iri.hash.BatchCurl;
+import com.iota.iri.hash.Curl;
+import com.iota.iri.model.Transaction;
+import com.iota.iri.utils.Converter;
+import com.iota.iri.utils.LongQueue;
+
+/**
+ * Offline bulk loader of a dump of transaction trytes, one transaction per line, optionally gzipped,
+ * or of an export written by {@link StorageExporter}.
+ *
+ * The records are hashed and validated on all cores with {@link BatchCurl} and the transactions trie is filled in batches,
+ * while the bundle, address, tag and approver indexes are deferred to a final pass applying them in trie order.
+ * The storage must be initialized and no node may be running on it.
+ */
+public class StorageImporter {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageImporter.class);
+
+    private static final int NUMBER_OF_RECORDS_PER_BATCH = BatchCurl.MAX_NUMBER_OF_INSTANCES * 16;
+    private static final int NUMBER_OF_TRANSACTIONS_PER_INDEX_RUN = 1 << 16;
+    private static final int TRANSACTION_TRYTES_SIZE = Transaction.TRINARY_SIZE / Converter.NUMBER_OF_TRITS_IN_A_TRYTE;
+    private static final Pattern TRYTES = Pattern.compile("[9A-Z]+");
+
+    // Compared by identity, they tell the next stage that one producer is done
+    private static final List<Object> END_OF_RECORDS = Collections.unmodifiableList(new ArrayList<>());
+    private static final List<Transaction> END_OF_TRANSACTIONS = Collections.unmodifiableList(new ArrayList<>());
+
+    private final AtomicLong numberOfInvalidTransactions = new AtomicLong();
+    private long numberOfStoredTransactions, numberOfKnownTransactions;
+
+    public void importTransactions(final Path dump) throws IOException, InterruptedException {
+
+        final long beginningTime = System.currentTimeMillis();
+
+        final int numberOfHashers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        final BlockingQueue<List<Object>> records = new ArrayBlockingQueue<>(numberOfHashers << 1);
+        final BlockingQueue<List<Transaction>> transactions = new ArrayBlockingQueue<>(numberOfHashers << 1);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(numberOfHashers + 1);
+        final Future<?> reader = executor.submit(() -> {
+            read(dump, records, numberOfHashers);
+            return null;
+        });
+        for (int i = 0; i < numberOfHashers; i++) {
+            executor.submit(() -> {
+                hash(records, transactions);
+                return null;
+            });
+        }
+
+        final LongQueue deferredTransactions = new LongQueue();
+        StorageTransactions.instance().deferIndexing(deferredTransactions);
+        try {
+            for (int numberOfFinishedHashers = 0; numberOfFinishedHashers < numberOfHashers; ) {
+
+                final List<Transaction> batch = transactions.take();
+                if (batch == END_OF_TRANSACTIONS) {
+                    numberOfFinishedHashers++;
+                    continue;
+                }
+                for (final long pointer : StorageTransactions.instance().storeTransactions(batch)) {
+                    if (pointer == 0) {
+                        numberOfKnownTransactions++;
+                    } else {
+                        numberOfStoredTransactions++;
+                    }
+                }
+            }
+        } finally {
+            StorageTransactions.instance().deferIndexing(null);
+            executor.shutdownNow();
+
+            // Whatever got stored must be indexed, even if the import is aborted
+            log.info("{} transactions stored, {} already known, {} invalid, indexing...",
+                    numberOfStoredTransactions, numberOfKnownTransactions, numberOfInvalidTransactions.get());
+            index(deferredTransactions);
+        }
+
+        try {
+            reader.get();
+        } catch (final ExecutionException e) {
+            throw new IOException("Reading " + dump + " failed, the transactions read so far were imported", e.getCause());
+        }
+
+        log.info("Import of {} took {} s", dump, (System.currentTimeMillis() - beginningTime) / 1000);
+    }
+
+    /**
+     * Batches trytes lines as strings or exported transactions as byte arrays.
+     */
+    private static void read(final Path dump, final BlockingQueue<List<Object>> records, final int numberOfHashers) throws IOException, InterruptedException {
+
+        InputStream input = Files.newInputStream(dump);
+        if (dump.toString().endsWith(".gz")) {
+            input = new GZIPInputStream(input, 1 << 16);
+        }
+        input = new BufferedInputStream(input, 1 << 20);
+
+        try {
+            final DataInputStream stream = new DataInputStream(input);
+            input.mark(Integer.BYTES);
+            int magic;
+            try {
+                magic = stream.readInt();
+            } catch (final EOFException e) {
+                magic = 0;
+            }
+            if (magic == StorageExporter.MAGIC) {
+                readFrames(new StorageExporter.FrameReader(stream), records);
+            } else {
+                input.reset();
+                readLines(new BufferedReader(new InputStreamReader(input, StandardCharsets.US_ASCII)), records);
+            }
+        } finally {
+            input.close();
+            for (int i = 0; i < numberOfHashers; i++) {
+                records.put(END_OF_RECORDS);
+            }
+        }
+    }
+
+    private static void readLines(final BufferedReader reader, final BlockingQueue<List<Object>> records) throws IOException, InterruptedException {
+
+        List<Object> batch = new ArrayList<>(NUMBER_OF_RECORDS_PER_BATCH);
+        String line;
+        while ((line = reader.readLine()) != null) {
+
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            batch.add(line);
+            if (batch.size() == NUMBER_OF_RECORDS_PER_BATCH) {
+                records.put(batch);
+                batch = new ArrayList<>(NUMBER_OF_RECORDS_PER_BATCH);
+            }
+        }
+        if (!batch.isEmpty()) {
+            records.put(batch);
+        }
+    }
+
+    private static void readFrames(final StorageExporter.FrameReader reader, final BlockingQueue<List<Object>> records) throws IOException, InterruptedException {
+
+        byte[] payload;
+        while ((payload = reader.read()).length > 0) {
+
+            final List<Object> batch = new ArrayList<>(payload.length / Transaction.BYTES_SIZE);
+            for (int offset = 0; offset < payload.length; offset += Transaction.BYTES_SIZE) {
+                batch.add(Arrays.copyOfRange(payload, offset, offset + Transaction.BYTES_SIZE));
+            }
+            records.put(batch);
+        }
+    }
+
+    private void hash(final BlockingQueue<List<Object>> records, final BlockingQueue<List<Transaction>> transactions) throws InterruptedException {
+
+        final BatchCurl curl = new BatchCurl();
+        final int[][] trits = new int[BatchCurl.MAX_NUMBER_OF_INSTANCES][];
+        final int[][] hashTrits = new int[BatchCurl.MAX_NUMBER_OF_INSTANCES][Curl.HASH_LENGTH];
+
+        try {
+            List<Object> batch;
+            while ((batch = records.take()) != END_OF_RECORDS) {
+
+                final List<Transaction> validTransactions = new ArrayList<>(batch.size());
+                for (int offset = 0; offset < batch.size(); offset += trits.length) {
+
+                    int numberOfTransactions = 0;
+                    for (int i = offset; i < offset + trits.length && i < batch.size(); i++) {
+
+                        final Object record = batch.get(i);
+                        if (record instanceof byte[]) {
+                            trits[numberOfTransactions++] = Transaction.trits((byte[]) record, new int[Transaction.TRINARY_SIZE]);
+                            continue;
+                        }
+                        final String trytes = (String) record;
+                        if (trytes.length() != TRANSACTION_TRYTES_SIZE || !TRYTES.matcher(trytes).matches()) {
+                            numberOfInvalidTransactions.incrementAndGet();
+                            continue;
+                        }
+                        trits[numberOfTransactions++] = Converter.trits(trytes);
+                    }
+                    if (numberOfTransactions == 0) {
+                        continue;
+                    }
+
+                    curl.reset();
+                    curl.absorb(trits, numberOfTransactions, 0, Transaction.TRINARY_SIZE);
+                    curl.squeeze(hashTrits, numberOfTransactions, 0, Curl.HASH_LENGTH);
+
+                    for (int i = 0; i < numberOfTransactions; i++) {
+                        try {
+                            validTransactions.add(new Transaction(Converter.bytes(trits[i]), trits[i], hashTrits[i]));
+                        } catch (final RuntimeException e) {
+                            numberOfInvalidTransactions.incrementAndGet();
+                        }
+                    }
+                }
+                transactions.put(validTransactions);
+            }
+        } finally {
+            transactions.put(END_OF_TRANSACTIONS);
+        }
+    }
+
+    private static void index(final LongQueue deferredTransactions) {
+
+        final List<Transaction> run = new ArrayList<>(NUMBER_OF_TRANSACTIONS_PER_INDEX_RUN);
+        long numberOfIndexedTransactions = 0;
+        while (!deferredTransactions.isEmpty()) {
+
+            run.clear();
+            while (run.size() < NUMBER_OF_TRANSACTIONS_PER_INDEX_RUN && !deferredTransactions.isEmpty()) {
+                run.add(StorageTransactions.instance().loadTransaction(deferredTransactions.poll()));
+            }
+            StorageTransactions.instance().indexTransactions(run);
+
+            numberOfIndexedTransactions += run.size();
+            log.info("{} transactions indexed, {} to go", numberOfIndexedTransactions, deferredTransactions.size());
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.iota.iri.service.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.model.Transaction;
+import com.iota.iri.utils.LongQueue;
+
+/**
+ * Append-only log of the stored transactions, so that the mapped files can be flushed lazily.
+ *
+ * A segment starts with {@link #MAGIC} and {@link #VERSION}, followed by records made of the CRC32 and the first
+ * {@link #RECORD_SIZE} bytes of the transaction cell. Records are written with the storage locked and forced once per
+ * {@link StorageTransactions#storeTransactions(List)} call, or every {@link DefaultConfSettings#DB_JOURNAL_SYNC_INTERVAL} ms.
+ * {@link StorageFlusher} starts a new segment before each flush, the older ones are deleted once the flush succeeds.
+ *
+ * At startup the remaining segments are replayed, which restores the transactions whose cells didn't reach the disk
+ * and appends every replayed transaction to the indexes which don't list it yet.
+ */
+public class StorageJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageJournal.class);
+
+    public static final int MAGIC = 0x4952494A; // "IRIJ"
+    public static final int VERSION = 1;
+
+    private static final String SEGMENT_FILE_NAME_PREFIX = "journal.", SEGMENT_FILE_NAME_SUFFIX = ".wal";
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+    private static final int RECORD_SIZE = Transaction.VALIDITY_OFFSET; // The validity and the milestone stamp are recomputed
+    private static final int NUMBER_OF_BUFFERED_RECORDS = 64;
+    private static final int NUMBER_OF_TRANSACTIONS_PER_REPLAY_BATCH = 4096; // Each index list touched by a batch is read once
+
+    // Guarded by Storage.class
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(NUMBER_OF_BUFFERED_RECORDS * (Integer.BYTES + RECORD_SIZE));
+    private final CRC32 crc = new CRC32();
+    private long segmentNumber;
+    private long numberOfSegmentRecords;
+
+    // Guarded by "syncMonitor", "channel" and "writtenPosition" are only changed with Storage.class held as well
+    private final Object syncMonitor = new Object();
+    private volatile FileChannel channel;
+    private volatile long writtenPosition; // Counts the bytes of all the segments written since the start
+    private long syncedPosition;
+    private volatile long lastSyncTime;
+
+    private volatile long syncInterval; // 0 if each commit syncs
+
+    /**
+     * Starts a new segment and replays the ones left by the previous run.
+     */
+    void init() throws IOException {
+
+        synchronized (Storage.class) {
+
+            syncInterval = Configuration.integer(DefaultConfSettings.DB_JOURNAL_SYNC_INTERVAL);
+
+            final List<Long> segmentNumbers = segmentNumbers();
+            segmentNumber = segmentNumbers.isEmpty() ? 0 : segmentNumbers.get(segmentNumbers.size() - 1);
+            openSegment(segmentNumber + 1);
+
+            for (final long number : segmentNumbers) {
+                replay(path(number));
+            }
+        }
+    }
+
+    void shutdown() {
+
+        synchronized (Storage.class) {
+            synchronized (syncMonitor) {
+                try {
+                    channel.close();
+                    if (numberOfSegmentRecords == 0) {
+                        Files.delete(path(segmentNumber));
+                    }
+                } catch (final IOException e) {
+                    log.error("Shutting down Storage Journal error: ", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Logs the transaction cell in the buffer, it must be called with Storage.class held.
+     */
+    void append(final byte[] cell) {
+
+        if (!buffer.hasRemaining()) {
+            write();
+        }
+        crc.reset();
+        crc.update(cell, 0, RECORD_SIZE);
+        buffer.putInt((int) crc.getValue()).put(cell, 0, RECORD_SIZE);
+        numberOfSegmentRecords++;
+    }
+
+    /**
+     * Writes the buffered records, it must be called with Storage.class held.
+     *
+     * @return the position to pass to {@link #commit(long)}
+     */
+    long write() {
+
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException("Writing to the journal failed", e);
+        } finally {
+            writtenPosition += buffer.position();
+            buffer.clear();
+        }
+        return writtenPosition;
+    }
+
+    /**
+     * Forces the records written up to the position, unless the journal is synced periodically instead.
+     * It must be called without holding Storage.class, so that concurrent commits share one sync.
+     */
+    void commit(final long position) {
+        if (syncInterval == 0) {
+            sync(position);
+        }
+    }
+
+    /**
+     * Forces the written records if the journal is synced periodically and the last sync is old enough.
+     */
+    void syncPeriodically() {
+        if (syncInterval > 0 && System.currentTimeMillis() - lastSyncTime >= syncInterval) {
+            sync(writtenPosition);
+        }
+    }
+
+    long syncInterval() {
+        return syncInterval;
+    }
+
+    private void sync(final long position) {
+
+        synchronized (syncMonitor) {
+            if (syncedPosition < position) {
+
+                final long targetPosition = writtenPosition;
+                try {
+                    channel.force(false);
+                } catch (final IOException e) {
+                    throw new RuntimeException("Syncing the journal failed", e);
+                }
+                syncedPosition = targetPosition;
+            }
+            lastSyncTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Starts a new segment unless the current one is empty.
+     *
+     * @return the number of the current segment, the older ones aren't needed once all the storages are flushed
+     */
+    long rotate() throws IOException {
+
+        synchronized (Storage.class) {
+            if (numberOfSegmentRecords > 0) {
+                write();
+                synchronized (syncMonitor) {
+                    channel.force(false);
+                    syncedPosition = writtenPosition;
+                    channel.close();
+                    openSegment(segmentNumber + 1);
+                }
+            }
+            return segmentNumber;
+        }
+    }
+
+    void deleteSegmentsBefore(final long number) throws IOException {
+
+        for (final long segmentNumber : segmentNumbers()) {
+            if (segmentNumber < number) {
+                Files.deleteIfExists(path(segmentNumber));
+            }
+        }
+    }
+
+    private void openSegment(final long number) throws IOException {
+
+        segmentNumber = number;
+        numberOfSegmentRecords = 0;
+        channel = FileChannel.open(path(number), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+        buffer.clear();
+        buffer.putInt(MAGIC).putInt(VERSION);
+        write();
+
+        // The segment must survive a crash, otherwise the older ones could be deleted too early
+        channel.force(true);
+        try (final FileChannel directory = FileChannel.open(AbstractStorage.path("").toAbsolutePath(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (final IOException e) {
+            // Not supported by every platform
+        }
+    }
+
+    private void replay(final Path segment) throws IOException {
+
+        final byte[] cell = new byte[AbstractStorage.CELL_SIZE];
+        final List<Transaction> transactions = new ArrayList<>(NUMBER_OF_TRANSACTIONS_PER_REPLAY_BATCH);
+        long numberOfRecords = 0, numberOfRestoredTransactions = 0;
+
+        try (final DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment), 1 << 16))) {
+
+            if (Files.size(segment) < HEADER_SIZE || input.readInt() != MAGIC || input.readInt() != VERSION) {
+                log.warn("{} isn't a journal segment, skipped", segment);
+                return;
+            }
+            while (true) {
+
+                final int checksum;
+                try {
+                    checksum = input.readInt();
+                    input.readFully(cell, 0, RECORD_SIZE);
+                } catch (final EOFException e) {
+                    break; // Possibly the torn last record, it was never committed
+                }
+                crc.reset();
+                crc.update(cell, 0, RECORD_SIZE);
+                if ((int) crc.getValue() != checksum) {
+                    log.warn("Corrupted record #{} in {}, the rest of the segment is skipped", numberOfRecords, segment);
+                    break;
+                }
+                numberOfRecords++;
+
+                transactions.add(new Transaction(cell, 0));
+                if (transactions.size() == NUMBER_OF_TRANSACTIONS_PER_REPLAY_BATCH) {
+                    numberOfRestoredTransactions += restore(transactions);
+                }
+            }
+            numberOfRestoredTransactions += restore(transactions);
+        }
+
+        log.info("{} replayed, {} of its {} transactions were missing", segment.getFileName(), numberOfRestoredTransactions, numberOfRecords);
+    }
+
+    /**
+     * Stores the missing transactions, then indexes all of them: the index cells of a transaction may be lost
+     * even if its own cell reached the disk, and the other way round. A transaction stored at a new pointer
+     * takes the place of the entries still pointing to its lost cell.
+     */
+    private static long restore(final List<Transaction> transactions) {
+
+        if (transactions.isEmpty()) {
+            return 0;
+        }
+
+        final LongQueue restoredTransactions = new LongQueue();
+        StorageTransactions.instance().deferIndexing(restoredTransactions);
+        try {
+            StorageTransactions.instance().storeTransactions(transactions);
+        } finally {
+            StorageTransactions.instance().deferIndexing(null);
+        }
+
+        final List<Transaction> storedTransactions = new ArrayList<>(transactions.size());
+        for (final Transaction transaction : transactions) {
+            storedTransactions.add(StorageTransactions.instance().loadTransaction(transaction.hash));
+        }
+        final int numberOfRestoredTransactions = restoredTransactions.size();
+        final Set<Long> restoredPointers = new HashSet<>();
+        while (!restoredTransactions.isEmpty()) {
+            restoredPointers.add(restoredTransactions.poll());
+        }
+        Storage.instance().reindexBundleAddressTagAndApprovers(storedTransactions, restoredPointers);
+
+        transactions.clear();
+        return numberOfRestoredTransactions;
+    }
+
+    private static List<Long> segmentNumbers() throws IOException {
+
+        final List<Long> segmentNumbers = new ArrayList<>();
+        try (final DirectoryStream<Path> segments = Files.newDirectoryStream(AbstractStorage.path(""), SEGMENT_FILE_NAME_PREFIX + "*" + SEGMENT_FILE_NAME_SUFFIX)) {
+            for (final Path segment : segments) {
+                final String fileName = segment.getFileName().toString();
+                try {
+                    segmentNumbers.add(Long.parseLong(fileName.substring(SEGMENT_FILE_NAME_PREFIX.length(), fileName.length() - SEGMENT_FILE_NAME_SUFFIX.length())));
+                } catch (final NumberFormatException e) {
+                    // Not a segment
+                }
+            }
+        }
+        segmentNumbers.sort(null);
+        return segmentNumbers;
+    }
+
+    private static Path path(final long segmentNumber) {
+        return AbstractStorage.path(SEGMENT_FILE_NAME_PREFIX + segmentNumber + SEGMENT_FILE_NAME_SUFFIX);
+    }
+
+    private static final StorageJournal instance = new StorageJournal();
+
+    private StorageJournal() {}
+
+    public static StorageJournal instance() {
+        return instance;
+    }
+}
@@ -0,0 +1,260 @@
+package com.iota.iri.service.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.iota.iri.Bundle;
+import com.iota.iri.Milestone;
+import com.iota.iri.Snapshot;
+import com.iota.iri.model.Hash;
+import com.iota.iri.model.Transaction;
+import com.iota.iri.model.TransactionView;
+import com.iota.iri.utils.LongQueue;
+
+/**
+ * Keeps the balances confirmed by the latest solid milestone.
+ *
+ * Each newly solid milestone is applied once: only the transactions that are not yet
+ * confirmed by a previous milestone are walked, their bundles are added to the balances
+ * and the index of the milestone is stamped into their cells.
+ * The balances are persisted together with the index of the milestone they belong to.
+ */
+public class StorageLedger extends AbstractStorage {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageLedger.class);
+
+    private static final StorageLedger instance = new StorageLedger();
+    private static final String LEDGER_FILE_NAME = "ledger.iri";
+
+    private volatile State state = new State(Milestone.MILESTONE_START_INDEX, Hash.NULL_HASH, Snapshot.initialState);
+
+    @Override
+    public void init() throws IOException {
+
+        final Path path = path(LEDGER_FILE_NAME);
+        if (Files.exists(path)) {
+
+            try (final DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+
+                final int milestoneIndex = input.readInt();
+                final byte[] milestone = new byte[Hash.SIZE_IN_BYTES];
+                input.readFully(milestone);
+
+                final Map<Hash, Long> balances = new HashMap<>();
+                for (int i = input.readInt(); i-- > 0; ) {
+
+                    final byte[] address = new byte[Hash.SIZE_IN_BYTES];
+                    input.readFully(address);
+                    balances.put(new Hash(address), input.readLong());
+                }
+
+                state = new State(milestoneIndex, new Hash(milestone), balances);
+            }
+            log.info("Ledger loaded at milestone #{}", state.milestoneIndex);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        // The ledger is saved every time it changes
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /**
+     * Applies the milestones up to the given one, stopping at the first inconsistent milestone.
+     *
+     * @return the updated state, its milestone index is lower than the given one if a milestone couldn't be applied
+     */
+    public synchronized State updateLedger(final int milestoneIndex) {
+
+        final State previousState = state;
+        if (milestoneIndex <= previousState.milestoneIndex) {
+            return previousState;
+        }
+
+        final long beginningTime = System.currentTimeMillis();
+
+        Map<Hash, Long> balances = previousState.balances;
+        int appliedMilestoneIndex = previousState.milestoneIndex;
+        Hash appliedMilestone = previousState.milestone;
+
+        for (int index = previousState.milestoneIndex + 1; index <= milestoneIndex; index++) {
+
+            final Hash milestone = Milestone.milestone(index);
+            if (milestone != null) {
+
+                final Map<Hash, Long> updatedBalances = new HashMap<>(balances);
+                if (!applyMilestone(milestone, index, appliedMilestoneIndex, updatedBalances)) {
+                    log.error("Ledger inconsistency detected at milestone #{}", index);
+                    break;
+                }
+                balances = updatedBalances;
+                appliedMilestoneIndex = index;
+                appliedMilestone = milestone;
+            }
+        }
+
+        if (appliedMilestoneIndex != previousState.milestoneIndex) {
+
+            state = new State(appliedMilestoneIndex, appliedMilestone, balances);
+            try {
+                save(state);
+            } catch (final IOException e) {
+                log.error("Saving the ledger error: ", e);
+            }
+            log.info("Ledger updated from milestone #{} to #{} ({} ms)", previousState.milestoneIndex, appliedMilestoneIndex, System.currentTimeMillis() - beginningTime);
+        }
+        return state;
+    }
+
+    private static boolean applyMilestone(final Hash milestone, final int milestoneIndex, final int appliedMilestoneIndex, final Map<Hash, Long> balances) {
+
+        // The transactions are stamped only once the whole milestone is known to be consistent
+        final LongQueue confirmedTransactions = new LongQueue();
+
+        try (final TraversalContext traversal = StorageScratchpad.instance().traversalContext()) {
+
+            final boolean consistent = new TangleWalker(traversal).walkApprovees(transaction -> {
+
+                final int confirmingMilestoneIndex = transaction.confirmingMilestoneIndex();
+                if (confirmingMilestoneIndex > 0 && confirmingMilestoneIndex <= appliedMilestoneIndex) {
+                    return TangleWalker.Step.SKIP;
+                }
+                if (transaction.type() == PREFILLED_SLOT) {
+                    return TangleWalker.Step.STOP;
+                }
+
+                if (transaction.currentIndex() == 0) {
+
+                    boolean validBundle = false;
+
+                    final Bundle bundle = new Bundle(transaction.bundle());
+                    for (final List<Transaction> bundleTransactions : bundle.getTransactions()) {
+
+                        if (bundleTransactions.get(0).pointer == transaction.pointer()) {
+
+                            validBundle = true;
+
+                            for (final Transaction bundleTransaction : bundleTransactions) {
+                                if (bundleTransaction.value != 0) {
+                                    final Hash address = new Hash(bundleTransaction.address);
+                                    final Long value = balances.get(address);
+                                    balances.put(address, value == null ? bundleTransaction.value : (value + bundleTransaction.value));
+                                }
+                            }
+                            break;
+                        }
+                    }
+
+                    if (!validBundle) {
+                        return TangleWalker.Step.STOP;
+                    }
+                }
+
+                confirmedTransactions.offer(transaction.pointer());
+                return TangleWalker.Step.DESCEND;
+
+            }, StorageTransactions.instance().transactionPointer(milestone.bytes()));
+
+            if (!consistent) {
+                return false;
+            }
+        }
+
+        final Iterator<Map.Entry<Hash, Long>> balancesIterator = balances.entrySet().iterator();
+        while (balancesIterator.hasNext()) {
+
+            final Map.Entry<Hash, Long> entry = balancesIterator.next();
+            if (entry.getValue() <= 0) {
+
+                if (entry.getValue() < 0) {
+                    return false;
+                }
+                balancesIterator.remove();
+            }
+        }
+
+        while (!confirmedTransactions.isEmpty()) {
+            StorageTransactions.instance().setConfirmingMilestoneIndex(confirmedTransactions.poll(), milestoneIndex);
+        }
+        return true;
+    }
+
+    private static void save(final State state) throws IOException {
+
+        // The stamps must reach the disk before the ledger claims them, otherwise a crash could apply a milestone twice
+        StorageTransactions.instance().flushTransactions();
+
+        final Path path = path(LEDGER_FILE_NAME);
+        final Path temporaryPath = path(LEDGER_FILE_NAME + ".tmp");
+        try (final FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+            output.writeInt(state.milestoneIndex);
+            output.write(state.milestone.bytes());
+            output.writeInt(state.balances.size());
+            for (final Map.Entry<Hash, Long> entry : state.balances.entrySet()) {
+                output.write(entry.getKey().bytes());
+                output.writeLong(entry.getValue());
+            }
+            output.flush();
+            channel.force(true);
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static StorageLedger instance() {
+        return instance;
+    }
+
+    /**
+     * Immutable balances confirmed by a milestone.
+     */
+    public static class State {
+
+        public final int milestoneIndex;
+        public final Hash milestone;
+        private final Map<Hash, Long> balances;
+
+        State(final int milestoneIndex, final Hash milestone, final Map<Hash, Long> balances) {
+            this.milestoneIndex = milestoneIndex;
+            this.milestone = milestone;
+            this.balances = Collections.unmodifiableMap(balances);
+        }
+
+        public long balance(final Hash address) {
+            final Long balance = balances.get(address);
+            return balance == null ? 0 : balance;
+        }
+
+        public Map<Hash, Long> balances() {
+            return balances;
+        }
+
+        public boolean confirms(final TransactionView transaction) {
+            final int confirmingMilestoneIndex = transaction.confirmingMilestoneIndex();
+            return confirmingMilestoneIndex > 0 && confirmingMilestoneIndex <= milestoneIndex;
+        }
+    }
+}
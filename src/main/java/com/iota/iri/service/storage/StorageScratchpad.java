@@ -3,11 +3,9 @@ package com.iota.iri.service.storage;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.util.Collections;
-import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,8 +22,8 @@ public class StorageScratchpad extends AbstractStorage {
     private static final String SCRATCHPAD_FILE_NAME = "scratchpad.iri";
 
     private ByteBuffer transactionsToRequest;
-    private ByteBuffer analyzedTransactionsFlags, analyzedTransactionsFlagsCopy;
-    
+    private final Queue<TraversalContext> traversalContexts = new ConcurrentLinkedQueue<>();
+
     private final byte[] transactionToRequest = new byte[Transaction.HASH_SIZE];
     private final Object transactionToRequestMonitor = new Object();
     private int previousNumberOfTransactions;
@@ -36,10 +34,8 @@ public class StorageScratchpad extends AbstractStorage {
 
     @Override
     public void init() throws IOException {
-        scratchpadChannel = FileChannel.open(Paths.get(SCRATCHPAD_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        scratchpadChannel = FileChannel.open(path(SCRATCHPAD_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
         transactionsToRequest = scratchpadChannel.map(FileChannel.MapMode.READ_WRITE, TRANSACTIONS_TO_REQUEST_OFFSET, TRANSACTIONS_TO_REQUEST_SIZE);
-        analyzedTransactionsFlags = scratchpadChannel.map(FileChannel.MapMode.READ_WRITE, ANALYZED_TRANSACTIONS_FLAGS_OFFSET, ANALYZED_TRANSACTIONS_FLAGS_SIZE);
-        analyzedTransactionsFlagsCopy = scratchpadChannel.map(FileChannel.MapMode.READ_WRITE, ANALYZED_TRANSACTIONS_FLAGS_COPY_OFFSET, ANALYZED_TRANSACTIONS_FLAGS_COPY_SIZE);	
     }
 
     @Override
@@ -59,31 +55,18 @@ public class StorageScratchpad extends AbstractStorage {
 
                 final long beginningTime = System.currentTimeMillis();
 
-                synchronized (analyzedTransactionsFlags) {
-
-                    clearAnalyzedTransactionsFlags();
+                try (final TraversalContext traversal = traversalContext()) {
 
-                    final Queue<Long> nonAnalyzedTransactions = new LinkedList<>(
-                    		
-                    Collections.singleton(
-                        StorageTransactions.instance()
-                        .transactionPointer(Milestone.latestMilestone.bytes())));
-                    
-                    Long pointer;
-                    while ((pointer = nonAnalyzedTransactions.poll()) != null) {
+                    new TangleWalker(traversal).walkApprovees(transaction -> {
 
-                        if (setAnalyzedTransactionFlag(pointer)) {
+                        if (transaction.type() == Storage.PREFILLED_SLOT) {
 
-                            final Transaction transaction = StorageTransactions.instance().loadTransaction(pointer);
-                            if (transaction.type == Storage.PREFILLED_SLOT) {
-
-                                ((ByteBuffer) transactionsToRequest.position(numberOfTransactionsToRequest++ * Transaction.HASH_SIZE)).put(transaction.hash); // Only 2'917'776 hashes can be stored this way without overflowing the buffer, we assume that nodes will never need to store that many hashes, so we don't need to cap "numberOfTransactionsToRequest"
-                            } else {
-                                nonAnalyzedTransactions.offer(transaction.trunkTransactionPointer);
-                                nonAnalyzedTransactions.offer(transaction.branchTransactionPointer);
-                            }
+                            ((ByteBuffer) transactionsToRequest.position(numberOfTransactionsToRequest++ * Transaction.HASH_SIZE)).put(transaction.hash(transactionToRequest)); // Only 2'917'776 hashes can be stored this way without overflowing the buffer, we assume that nodes will never need to store that many hashes, so we don't need to cap "numberOfTransactionsToRequest"
+                            return TangleWalker.Step.SKIP;
                         }
-                    }
+                        return TangleWalker.Step.DESCEND;
+
+                    }, StorageTransactions.instance().transactionPointer(Milestone.latestMilestone.bytes()));
                 }
 
                 final long transactionsNextPointer = StorageTransactions.transactionsNextPointer;
@@ -100,50 +83,15 @@ public class StorageScratchpad extends AbstractStorage {
         }
     }
 
-    public void clearAnalyzedTransactionsFlags() {
-        analyzedTransactionsFlags.position(0);
-        for (int i = 0; i < ANALYZED_TRANSACTIONS_FLAGS_SIZE / CELL_SIZE; i++) {
-            analyzedTransactionsFlags.put(ZEROED_BUFFER);
-        }
-    }
-
-    public boolean analyzedTransactionFlag(long pointer) {
-        pointer -= CELLS_OFFSET - SUPER_GROUPS_OFFSET;
-        return (analyzedTransactionsFlags.get((int) (pointer >> (11 + 3))) & (1 << ((pointer >> 11) & 7))) != 0;
+    public TraversalContext traversalContext() {
+        final TraversalContext traversal = traversalContexts.poll();
+        return traversal == null ? new TraversalContext() : traversal;
     }
 
-    public boolean setAnalyzedTransactionFlag(long pointer) {
-
-        pointer -= CELLS_OFFSET - SUPER_GROUPS_OFFSET;
-
-        final int value = analyzedTransactionsFlags.get((int) (pointer >> (11 + 3)));
-        if ((value & (1 << ((pointer >> 11) & 7))) == 0) {
-            analyzedTransactionsFlags.put((int)(pointer >> (11 + 3)), (byte)(value | (1 << ((pointer >> 11) & 7))));
-            return true;
-        } 
-        return false;
-    }
-
-    public void saveAnalyzedTransactionsFlags() {
-        analyzedTransactionsFlags.position(0);
-        analyzedTransactionsFlagsCopy.position(0);
-        analyzedTransactionsFlagsCopy.put(analyzedTransactionsFlags);
+    void releaseTraversalContext(final TraversalContext traversal) {
+        traversalContexts.offer(traversal);
     }
 
-    public void loadAnalyzedTransactionsFlags() {
-        analyzedTransactionsFlagsCopy.position(0);
-        analyzedTransactionsFlags.position(0);
-        analyzedTransactionsFlags.put(analyzedTransactionsFlagsCopy);
-    }
-    
-    public ByteBuffer getAnalyzedTransactionsFlags() {
-		return analyzedTransactionsFlags;
-	}
-    
-    public ByteBuffer getAnalyzedTransactionsFlagsCopy() {
-		return analyzedTransactionsFlagsCopy;
-	}
-    
     public int getNumberOfTransactionsToRequest() {
 		return numberOfTransactionsToRequest;
 	}
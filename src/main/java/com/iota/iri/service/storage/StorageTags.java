@@ -3,15 +3,17 @@ package com.iota.iri.service.storage;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.iota.iri.model.Transaction;
+import com.iota.iri.utils.LongQueue;
 
 public class StorageTags extends AbstractStorage {
 
@@ -27,44 +29,23 @@ public class StorageTags extends AbstractStorage {
 
 	@Override
 	public void init() throws IOException {
-		tagsChannel = FileChannel.open(Paths.get(TAGS_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.READ,
+		tagsChannel = FileChannel.open(path(TAGS_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.READ,
 		        StandardOpenOption.WRITE);
-		tagsChunks[0] = tagsChannel.map(FileChannel.MapMode.READ_WRITE, 0, SUPER_GROUPS_SIZE);
-		final long tagsChannelSize = tagsChannel.size();
-		while (true) {
-
-			if ((tagsNextPointer & (CHUNK_SIZE - 1)) == 0) {
-				tagsChunks[(int) (tagsNextPointer >> 27)] = tagsChannel.map(FileChannel.MapMode.READ_WRITE,
-				        tagsNextPointer, CHUNK_SIZE);
-			}
-
-			if (tagsChannelSize - tagsNextPointer > CHUNK_SIZE) {
-				tagsNextPointer += CHUNK_SIZE;
-			} else {
-				tagsChunks[(int) (tagsNextPointer >> 27)].get(mainBuffer);
-				boolean empty = true;
-				for (final int value : mainBuffer) {
-					if (value != 0) {
-						empty = false;
-						break;
-					}
-				}
-				if (empty) {
-					break;
-				}
-
-				tagsNextPointer += CELL_SIZE;
-			}
-		}
+		tagsNextPointer = mapChunks(tagsChannel, TAGS_FILE_NAME, tagsChunks, 0);
 	}
 
+    @Override
+    boolean flushWrites() {
+        return flushDirtyChunks(tagsChunks);
+    }
+
 	@Override
 	public void shutdown() {
-        for (int i = 0; i < MAX_NUMBER_OF_CHUNKS && tagsChunks[i] != null; i++) {
-        	log.info("Flushing tags chunk #" + i);
-            flush(tagsChunks[i]);
-        }
+        final boolean flushed = flushWrites();
         try {
+            if (flushed) {
+                saveHeader(TAGS_FILE_NAME, tagsNextPointer, true);
+            }
             tagsChannel.close();
         } catch (final Exception e) {
         	log.error("Shutting down Storage Tag error: ", e);
@@ -99,8 +80,14 @@ public class StorageTags extends AbstractStorage {
 	
 	public List<Long> tagTransactions(final long pointer) {
 
-        synchronized (Storage.class) {
         final List<Long> tagTransactions = new LinkedList<>();
+        tagTransactions(pointer, tagTransactions::add);
+        return tagTransactions;
+    }
+
+    public void tagTransactions(final long pointer, final LongConsumer tagTransactions) {
+
+        synchronized (Storage.class) {
 
         if (pointer != 0) {
             ((ByteBuffer) tagsChunks[(int) (pointer >> 27)].position((int) (pointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
@@ -113,7 +100,7 @@ public class StorageTags extends AbstractStorage {
                     if (transactionPointer == 0) {
                         break;
                     } else {
-                        tagTransactions.add(transactionPointer);
+                        tagTransactions.accept(transactionPointer);
                     }
                 }
                 if (offset == CELL_SIZE - Long.BYTES) {
@@ -130,23 +117,32 @@ public class StorageTags extends AbstractStorage {
                 }
             }
         }
-        return tagTransactions;
         }
     }
 	
 	private void appendToTags() {
 
         ((ByteBuffer) tagsChunks[(int)(tagsNextPointer >> 27)].position((int)(tagsNextPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+        markDirty(tagsNextPointer);
         if (((tagsNextPointer += CELL_SIZE) & (CHUNK_SIZE - 1)) == 0) {
 
             try {
-                tagsChunks[(int)(tagsNextPointer >> 27)] = tagsChannel.map(FileChannel.MapMode.READ_WRITE, tagsNextPointer, CHUNK_SIZE);
+                tagsChunks[(int)(tagsNextPointer >> 27)] = mapChunk(tagsChannel, tagsNextPointer);
             } catch (final IOException e) {
             	log.error("Caught exception on appendToTags:", e);
             }
         }
     }
 	
+    /**
+     * Overwrites the listed transactions which "stale" matches with "replacements", see {@link #replaceStalePointers}.
+     */
+    void replaceStaleTagTransactions(final long pointer, final LongPredicate stale, final LongQueue replacements) {
+        if (pointer != 0) {
+            replaceStalePointers(tagsChunks, pointer, ZEROTH_POINTER_OFFSET, Long.MAX_VALUE, stale, replacements);
+        }
+    }
+
 	public void updateTags(final long transactionPointer, final Transaction transaction) {
 		for (int i = 0; i < Transaction.TAG_SIZE; i++) {
 
@@ -164,6 +160,7 @@ public class StorageTags extends AbstractStorage {
 
                             setValue(mainBuffer, (transaction.tag[depth] + 128) << 3, tagsNextPointer);
                             ((ByteBuffer) tagsChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                            markDirty(prevPointer);
 
                             System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
                             mainBuffer[Transaction.TYPE_OFFSET] = FILLED_SLOT;
@@ -187,6 +184,7 @@ public class StorageTags extends AbstractStorage {
                                 ((ByteBuffer) tagsChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
                                 setValue(mainBuffer, (transaction.tag[depth - 1] + 128) << 3, tagsNextPointer);
                                 ((ByteBuffer) tagsChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                                markDirty(prevPointer);
 
                                 for (int k = depth; k < j; k++) {
 
@@ -227,6 +225,7 @@ public class StorageTags extends AbstractStorage {
 
                                         setValue(mainBuffer, offset, tagsNextPointer);
                                         ((ByteBuffer) tagsChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                                        markDirty(pointer);
 
                                         System.arraycopy(ZEROED_BUFFER, 0, mainBuffer, 0, CELL_SIZE);
                                         setValue(mainBuffer, 0, transactionPointer);
@@ -241,6 +240,7 @@ public class StorageTags extends AbstractStorage {
                                 } else {
                                     setValue(mainBuffer, offset, transactionPointer);
                                     ((ByteBuffer) tagsChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                                    markDirty(pointer);
                                     break;
                                 }
                             }
@@ -2,18 +2,21 @@ package com.iota.iri.service.storage;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.iota.iri.model.Hash;
 import com.iota.iri.model.Transaction;
+import com.iota.iri.utils.LongQueue;
 
 public class StorageTransactions extends AbstractStorage {
 	
@@ -26,65 +29,78 @@ public class StorageTransactions extends AbstractStorage {
     private ByteBuffer transactionsTipsFlags;
     
     private final ByteBuffer[] transactionsChunks = new ByteBuffer[MAX_NUMBER_OF_CHUNKS];
+    private volatile boolean tipsFlagsDirty;
+    private final TipsIndex tips = new TipsIndex();
+    private LongQueue deferredTransactions; // Set while bulk loading, the stored transactions are indexed afterwards
+
+    // Readers never touch the position of the chunks nor the shared buffers, so they only exclude the writers
+    private final ReadWriteLock transactionsLock = new ReentrantReadWriteLock();
     
-    public static long transactionsNextPointer = CELLS_OFFSET - SUPER_GROUPS_OFFSET;
+    public static volatile long transactionsNextPointer = CELLS_OFFSET - SUPER_GROUPS_OFFSET;
     
     @Override
 	public void init() throws IOException {
 		
-        transactionsChannel = FileChannel.open(Paths.get(TRANSACTIONS_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        transactionsChannel = FileChannel.open(path(TRANSACTIONS_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
         transactionsTipsFlags = transactionsChannel.map(FileChannel.MapMode.READ_WRITE, TIPS_FLAGS_OFFSET, TIPS_FLAGS_SIZE);
-        transactionsChunks[0] = transactionsChannel.map(FileChannel.MapMode.READ_WRITE, SUPER_GROUPS_OFFSET, SUPER_GROUPS_SIZE);
-        final long transactionsChannelSize = transactionsChannel.size();
-        while (true) {
-
-            if ((transactionsNextPointer & (CHUNK_SIZE - 1)) == 0) {
-                transactionsChunks[(int)(transactionsNextPointer >> 27)] = transactionsChannel.map(FileChannel.MapMode.READ_WRITE, SUPER_GROUPS_OFFSET + transactionsNextPointer, CHUNK_SIZE);
-            }
-            if (transactionsChannelSize - transactionsNextPointer - SUPER_GROUPS_OFFSET > CHUNK_SIZE) {
-                transactionsNextPointer += CHUNK_SIZE;
-            } else {
-            	
-                transactionsChunks[(int) (transactionsNextPointer >> 27)].get(mainBuffer);
-                boolean empty = true;
-                for (final int value : mainBuffer) {
-                    if (value != 0) {
-                        empty = false;
-                        break;
-                    }
-                }
-                if (empty) {
-                    break;
+        transactionsNextPointer = mapChunks(transactionsChannel, TRANSACTIONS_FILE_NAME, transactionsChunks, SUPER_GROUPS_OFFSET);
+
+        tips.clear();
+        final long numberOfCells = (transactionsNextPointer - (CELLS_OFFSET - SUPER_GROUPS_OFFSET)) >> 11;
+        for (int i = 0; i < (numberOfCells + 7) >> 3; i++) {
+            final int flags = transactionsTipsFlags.get(i) & 0xFF;
+            for (int bit = 0; flags >> bit != 0; bit++) {
+                if ((flags & (1 << bit)) != 0) {
+                    tips.add(CELLS_OFFSET - SUPER_GROUPS_OFFSET + ((((long) i << 3) + bit) << 11));
                 }
-                transactionsNextPointer += CELL_SIZE;
             }
         }
+        log.info("{} tips loaded", tips.size());
 	}
 
 	public void updateBundleAddressTagApprovers() {
 		if (transactionsNextPointer == CELLS_OFFSET - SUPER_GROUPS_OFFSET) {
 
-            // No need to zero "mainBuffer", it already contains only zeros
-            setValue(mainBuffer, Transaction.TYPE_OFFSET, FILLED_SLOT);
-            appendToTransactions(true);
-
-            emptyMainBuffer();
-            setValue(mainBuffer, 128 << 3, CELLS_OFFSET - SUPER_GROUPS_OFFSET);
-            ((ByteBuffer)transactionsChunks[0].position((128 + (128 << 8)) << 11)).put(mainBuffer);
-
-            emptyMainBuffer();
+            transactionsLock.writeLock().lock();
+            try {
+                // No need to zero "mainBuffer", it already contains only zeros
+                setValue(mainBuffer, Transaction.TYPE_OFFSET, FILLED_SLOT);
+                appendToTransactions(true);
+
+                emptyMainBuffer();
+                setValue(mainBuffer, 128 << 3, CELLS_OFFSET - SUPER_GROUPS_OFFSET);
+                ((ByteBuffer)transactionsChunks[0].position((128 + (128 << 8)) << 11)).put(mainBuffer);
+                markDirty((128 + (128 << 8)) << 11);
+
+                emptyMainBuffer();
+            } finally {
+                transactionsLock.writeLock().unlock();
+            }
             Storage.instance().updateBundleAddressTagAndApprovers(CELLS_OFFSET - SUPER_GROUPS_OFFSET);
         }
 	}
 	
     @Override
-	public void shutdown() {
-        ((MappedByteBuffer) transactionsTipsFlags).force();
-        for (int i = 0; i < MAX_NUMBER_OF_CHUNKS && transactionsChunks[i] != null; i++) {
-            log.info("Flushing transactions chunk #" + i);
-            flush(transactionsChunks[i]);
+    synchronized boolean flushWrites() {
+
+        boolean flushed = true;
+        if (tipsFlagsDirty) {
+            tipsFlagsDirty = false;
+            if (!flush(transactionsTipsFlags)) {
+                tipsFlagsDirty = true;
+                flushed = false;
+            }
         }
+        return flushDirtyChunks(transactionsChunks) && flushed;
+    }
+
+    @Override
+	public void shutdown() {
+        final boolean flushed = flushWrites();
         try {
+			if (flushed) {
+				saveHeader(TRANSACTIONS_FILE_NAME, transactionsNextPointer, true);
+			}
 			transactionsChannel.close();
 		} catch (IOException e) {
 			log.error("Shutting down Storage Transaction error: ", e);
@@ -94,97 +110,207 @@ public class StorageTransactions extends AbstractStorage {
     public void appendToTransactions(final boolean tip) {
 
         ((ByteBuffer)transactionsChunks[(int)(transactionsNextPointer >> 27)].position((int)(transactionsNextPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+        markDirty(transactionsNextPointer);
 
         if (tip) {
             final long index = (transactionsNextPointer - (CELLS_OFFSET - SUPER_GROUPS_OFFSET)) >> 11;
             transactionsTipsFlags.put((int) (index >> 3), (byte) (transactionsTipsFlags.get((int) (index >> 3)) | (1 << (index & 7))));
+            tipsFlagsDirty = true;
+            tips.add(transactionsNextPointer);
         }
 
         if (((transactionsNextPointer += CELL_SIZE) & (CHUNK_SIZE - 1)) == 0) {
 
             try {
-                transactionsChunks[(int)(transactionsNextPointer >> 27)] = transactionsChannel.map(FileChannel.MapMode.READ_WRITE, SUPER_GROUPS_OFFSET + transactionsNextPointer, CHUNK_SIZE);
+                transactionsChunks[(int)(transactionsNextPointer >> 27)] = mapChunk(transactionsChannel, SUPER_GROUPS_OFFSET + transactionsNextPointer);
             } catch (final IOException e) {
             	log.error("Caught exception on appendToTransactions:", e);
             }
         }
     }
     
+    public int transactionType(final long pointer) { // Reading the type under the lock makes the whole cell visible, the fields of a filled cell never change afterwards
+
+        transactionsLock.readLock().lock();
+        try {
+            return transactionsChunks[(int)(pointer >> 27)].get((int)(pointer & (CHUNK_SIZE - 1)) + Transaction.TYPE_OFFSET);
+        } finally {
+            transactionsLock.readLock().unlock();
+        }
+    }
+
     public long transactionPointer(final byte[] hash) { // Returns a negative value if the transaction hasn't been seen yet but was referenced
+        return transactionPointer(ByteBuffer.wrap(hash), 0);
+    }
 
-        synchronized (Storage.class) {
-        long pointer = ((hash[0] + 128) + ((hash[1] + 128) << 8)) << 11;
+    public long transactionPointer(final ByteBuffer hashBuffer, final int hashOffset) { // Same as above but the hash is read from "hashBuffer" at "hashOffset", e.g. from another mapped cell
+
+        transactionsLock.readLock().lock();
+        try {
+        long pointer = ((hashBuffer.get(hashOffset) + 128) + ((hashBuffer.get(hashOffset + 1) + 128) << 8)) << 11;
         for (int depth = 2; depth < Transaction.HASH_SIZE; depth++) {
 
-            ((ByteBuffer)transactionsChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).get(auxBuffer);
+            final ByteBuffer chunk = transactionsChunks[(int)(pointer >> 27)];
+            final int offset = (int)(pointer & (CHUNK_SIZE - 1));
 
-            if (auxBuffer[Transaction.TYPE_OFFSET] == GROUP) {
-                if ((pointer = value(auxBuffer, (hash[depth] + 128) << 3)) == 0) {
+            if (chunk.get(offset + Transaction.TYPE_OFFSET) == GROUP) {
+                if ((pointer = value(chunk, offset + ((hashBuffer.get(hashOffset + depth) + 128) << 3))) == 0) {
                     return 0;
                 }
 
             } else {
 
                 for (; depth < Transaction.HASH_SIZE; depth++) {
-                    if (auxBuffer[Transaction.HASH_OFFSET + depth] != hash[depth]) {
+                    if (chunk.get(offset + Transaction.HASH_OFFSET + depth) != hashBuffer.get(hashOffset + depth)) {
                         return 0;
                     }
                 }
 
-                return auxBuffer[Transaction.TYPE_OFFSET] == PREFILLED_SLOT ? -pointer : pointer;
+                return chunk.get(offset + Transaction.TYPE_OFFSET) == PREFILLED_SLOT ? -pointer : pointer;
             }
         }
+        } finally {
+            transactionsLock.readLock().unlock();
         }
         throw new IllegalStateException("Corrupted storage");
     }
 
     public Transaction loadTransaction(final long pointer) {
-        synchronized (Storage.class) {
-            ((ByteBuffer)transactionsChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
-            return new Transaction(mainBuffer, pointer);
-    	}
+        transactionsLock.readLock().lock();
+        try {
+            return new Transaction(loadCell(transactionsChunks, pointer), pointer);
+        } finally {
+            transactionsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies any cell, a transaction or a trie group, for scans running alongside the node.
+     * The returned array is reused by the next call made from the same thread.
+     */
+    byte[] loadTransactionsCell(final long pointer) {
+        transactionsLock.readLock().lock();
+        try {
+            return loadCell(transactionsChunks, pointer);
+        } finally {
+            transactionsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the pointer leads to a stored transaction holding "key" at "offset", false for any other cell
+     */
+    boolean transactionHolds(final long pointer, final byte[] key, final int offset) {
+
+        if (pointer < CELLS_OFFSET - SUPER_GROUPS_OFFSET || pointer >= transactionsNextPointer || (pointer & (CELL_SIZE - 1)) != 0) {
+            return false;
+        }
+        final byte[] cell = loadTransactionsCell(pointer);
+        if (cell[Transaction.TYPE_OFFSET] != FILLED_SLOT) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (cell[offset + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public Transaction loadTransaction(final byte[] hash) {
-        synchronized (Storage.class) {
+        transactionsLock.readLock().lock();
+        try {
             final long pointer = transactionPointer(hash);
             return pointer > 0 ? loadTransaction(pointer) : null;
+        } finally {
+            transactionsLock.readLock().unlock();
         }
     }
     
     public void setTransactionValidity(final long pointer, final int validity) {
-        synchronized (Storage.class) {
+        transactionsLock.writeLock().lock();
+        try {
             transactionsChunks[(int)(pointer >> 27)].put(((int)(pointer & (CHUNK_SIZE - 1))) + Transaction.VALIDITY_OFFSET, (byte)validity);
+            markDirty(pointer);
+        } finally {
+            transactionsLock.writeLock().unlock();
+        }
+    }
+	
+    public void setConfirmingMilestoneIndex(final long pointer, final int milestoneIndex) {
+        transactionsLock.writeLock().lock();
+        try {
+            setValue(transactionsChunks[(int)(pointer >> 27)], ((int)(pointer & (CHUNK_SIZE - 1))) + Transaction.CONFIRMING_MILESTONE_INDEX_OFFSET, milestoneIndex);
+            markDirty(pointer);
+        } finally {
+            transactionsLock.writeLock().unlock();
         }
     }
+
+    public void flushTransactions() {
+        flushWrites();
+    }
 	
     public boolean tipFlag(final long pointer) {
-    	synchronized (Storage.class) {
+        final long index = (pointer - (CELLS_OFFSET - SUPER_GROUPS_OFFSET)) >> 11;
+        return (transactionsTipsFlags.get((int)(index >> 3)) & (1 << (index & 7))) != 0;
+    }
+    
+    public void clearTipFlag(final long pointer) { // Must be called with Storage.class held, like "appendToTransactions"
+        transactionsLock.writeLock().lock();
+        try {
             final long index = (pointer - (CELLS_OFFSET - SUPER_GROUPS_OFFSET)) >> 11;
-            return (transactionsTipsFlags.get((int)(index >> 3)) & (1 << (index & 7))) != 0;
+            transactionsTipsFlags.put((int) (index >> 3), (byte) (transactionsTipsFlags.get((int) (index >> 3)) & (0xFF ^ (1 << (index & 7)))));
+            tipsFlagsDirty = true;
+            tips.remove(pointer);
+        } finally {
+            transactionsLock.writeLock().unlock();
         }
     }
-    
+
     public List<Hash> tips() {
-    	synchronized (Storage.class) {
-            final List<Hash> tips = new LinkedList<>();
-    
-            long pointer = CELLS_OFFSET - SUPER_GROUPS_OFFSET;
-            while (pointer < transactionsNextPointer) {
-    
-                if (tipFlag(pointer)) {
-                    tips.add(new Hash(loadTransaction(pointer).hash, 0, Transaction.HASH_SIZE));
-                }
-                pointer += CELL_SIZE;
+        transactionsLock.readLock().lock();
+        try {
+            final List<Hash> tips = new ArrayList<>(this.tips.size());
+            final byte[] hash = new byte[Transaction.HASH_SIZE];
+            for (int i = 0; i < this.tips.size(); i++) {
+                final long pointer = this.tips.tip(i);
+                ((ByteBuffer) transactionsChunks[(int) (pointer >> 27)].duplicate().position((int) (pointer & (CHUNK_SIZE - 1)) + Transaction.HASH_OFFSET)).get(hash);
+                tips.add(new Hash(hash, 0, Transaction.HASH_SIZE));
             }
             return tips;
-    	}
+        } finally {
+            transactionsLock.readLock().unlock();
+        }
+    }
+
+    public int numberOfTips() {
+        transactionsLock.readLock().lock();
+        try {
+            return tips.size();
+        } finally {
+            transactionsLock.readLock().unlock();
+        }
+    }
+
+    public long randomTipPointer(final Random random) { // Returns 0 if there are no tips
+        transactionsLock.readLock().lock();
+        try {
+            return tips.size() == 0 ? 0 : tips.tip(random.nextInt(tips.size()));
+        } finally {
+            transactionsLock.readLock().unlock();
+        }
     }
     
     public long storeTransaction(final byte[] hash, final Transaction transaction, final boolean tip) { // Returns the pointer or 0 if the transaction was already in the storage and "transaction" value is not null
 
     	synchronized (Storage.class) {
         long pointer = ((hash[0] + 128) + ((hash[1] + 128) << 8)) << 11, prevPointer = 0;
+        boolean stored = false;
+
+        // Only the trie changes exclude the readers, the indexes are updated afterwards with the mutated cell still in "mainBuffer"
+        transactionsLock.writeLock().lock();
+        try {
 
     MAIN_LOOP:
         for (int depth = 2; depth < Transaction.HASH_SIZE; depth++) {
@@ -198,12 +324,11 @@ public class StorageTransactions extends AbstractStorage {
 
                     setValue(mainBuffer, (hash[depth] + 128) << 3, pointer = transactionsNextPointer);
                     ((ByteBuffer)transactionsChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                    markDirty(prevPointer);
 
                     Transaction.dump(mainBuffer, hash, transaction);
                     appendToTransactions(transaction != null || tip);
-                    if (transaction != null) {
-                        Storage.instance().updateBundleAddressTagAndApprovers(pointer);
-                    }
+                    stored = transaction != null;
 
                     break MAIN_LOOP;
                 }
@@ -219,6 +344,7 @@ public class StorageTransactions extends AbstractStorage {
                         ((ByteBuffer)transactionsChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).get(mainBuffer);
                         setValue(mainBuffer, (hash[depth - 1] + 128) << 3, transactionsNextPointer);
                         ((ByteBuffer)transactionsChunks[(int)(prevPointer >> 27)].position((int)(prevPointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
+                        markDirty(prevPointer);
 
                         for (int j = depth; j < i; j++) {
 
@@ -235,9 +361,7 @@ public class StorageTransactions extends AbstractStorage {
                         Transaction.dump(mainBuffer, hash, transaction);
                         pointer = transactionsNextPointer;
                         appendToTransactions(transaction != null || tip);
-                        if (transaction != null) {
-                            Storage.instance().updateBundleAddressTagAndApprovers(pointer);
-                        }
+                        stored = transaction != null;
 
                         break MAIN_LOOP;
                     }
@@ -248,7 +372,8 @@ public class StorageTransactions extends AbstractStorage {
                     if (mainBuffer[Transaction.TYPE_OFFSET] == PREFILLED_SLOT) {
                         Transaction.dump(mainBuffer, hash, transaction);
                         ((ByteBuffer)transactionsChunks[(int)(pointer >> 27)].position((int)(pointer & (CHUNK_SIZE - 1)))).put(mainBuffer);
-                        Storage.instance().updateBundleAddressTagAndApprovers(pointer);
+                        markDirty(pointer);
+                        stored = true;
                     } else {
                         pointer = 0;
                     }
@@ -257,13 +382,77 @@ public class StorageTransactions extends AbstractStorage {
             }
         }
 
+        } finally {
+            transactionsLock.writeLock().unlock();
+        }
+
+        if (stored) {
+            updateIndexes(pointer);
+        }
         return pointer;
     	}
     }
 
+    private void updateIndexes(final long pointer) {
+        if (deferredTransactions == null) {
+            StorageJournal.instance().append(mainBuffer); // An interrupted bulk load is rerun instead
+            Storage.instance().updateBundleAddressTagAndApprovers(pointer);
+        } else {
+            deferredTransactions.offer(pointer);
+        }
+    }
+
+    /**
+     * Makes the following stores only collect the pointers of the stored transactions into "deferredTransactions"
+     * instead of updating the bundle, address, tag and approver indexes, null restores the normal behaviour.
+     */
+    void deferIndexing(final LongQueue deferredTransactions) {
+        synchronized (Storage.class) {
+            this.deferredTransactions = deferredTransactions;
+        }
+    }
+
+    /**
+     * Applies the index updates deferred by {@link #deferIndexing(LongQueue)} for the loaded transactions.
+     */
+    void indexTransactions(final List<Transaction> transactions) {
+        synchronized (Storage.class) {
+            Storage.instance().updateBundleAddressTagAndApprovers(transactions);
+        }
+    }
+
+    /**
+     * Stores a batch holding Storage.class once, in trie order so consecutive inserts mostly revisit the same cells.
+     *
+     * @return the pointers in the order of "transactions", 0 for the ones that were already stored
+     */
+    public long[] storeTransactions(final List<Transaction> transactions) {
+
+        final Integer[] order = new Integer[transactions.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> compareTriePaths(transactions.get(i).hash, transactions.get(j).hash));
+
+        final long[] pointers = new long[order.length];
+        final long journalPosition;
+        synchronized (Storage.class) {
+            for (final int i : order) {
+                pointers[i] = storeTransaction(transactions.get(i).hash, transactions.get(i), false);
+            }
+            journalPosition = StorageJournal.instance().write();
+        }
+        StorageJournal.instance().commit(journalPosition); // One sync for the whole batch, shared with the concurrent ones
+        return pointers;
+    }
+
     public ByteBuffer transactionsTipsFlags() {
 		return transactionsTipsFlags;
 	}
+
+    public ByteBuffer transactionsChunk(final long pointer) { // Only absolute reads must be done on the returned buffer
+        return transactionsChunks[(int)(pointer >> 27)];
+    }
     
 	public static StorageTransactions instance() {
 		return instance;
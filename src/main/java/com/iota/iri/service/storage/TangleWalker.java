@@ -0,0 +1,91 @@
+package com.iota.iri.service.storage;
+
+import com.iota.iri.model.Transaction;
+import com.iota.iri.model.TransactionView;
+import com.iota.iri.utils.LongQueue;
+
+/**
+ * Breadth-first tangle walk over the trunk/branch references or over the approvers of transactions.
+ *
+ * Every transaction is visited once per {@link TraversalContext}, the visitor decides whether the walk
+ * continues into its neighbours, skips them or stops altogether.
+ * An instance reuses its queue and view between walks and must not be shared between threads.
+ */
+public class TangleWalker {
+
+    public enum Step {
+        DESCEND, SKIP, STOP
+    }
+
+    @FunctionalInterface
+    public interface Visitor {
+        Step visit(TransactionView transaction);
+    }
+
+    private final TraversalContext traversal;
+    private final LongQueue nonAnalyzedTransactions = new LongQueue();
+    private final TransactionView transaction = new TransactionView();
+    private final byte[] hash = new byte[Transaction.HASH_SIZE];
+
+    private int numberOfVisitedTransactions;
+
+    public TangleWalker(final TraversalContext traversal) {
+        this.traversal = traversal;
+    }
+
+    /**
+     * @return false if the visitor stopped the walk
+     */
+    public boolean walkApprovees(final Visitor visitor, final long... pointers) {
+        return walk(visitor, false, pointers);
+    }
+
+    /**
+     * @return false if the visitor stopped the walk
+     */
+    public boolean walkApprovers(final Visitor visitor, final long... pointers) {
+        return walk(visitor, true, pointers);
+    }
+
+    public int numberOfVisitedTransactions() {
+        return numberOfVisitedTransactions;
+    }
+
+    private boolean walk(final Visitor visitor, final boolean approvers, final long... pointers) {
+
+        numberOfVisitedTransactions = 0;
+        nonAnalyzedTransactions.clear();
+        for (final long pointer : pointers) {
+            nonAnalyzedTransactions.offer(pointer);
+        }
+
+        while (!nonAnalyzedTransactions.isEmpty()) {
+
+            final long pointer = nonAnalyzedTransactions.poll();
+            if (traversal.setAnalyzedTransactionFlag(pointer)) {
+
+                numberOfVisitedTransactions++;
+
+                switch (visitor.visit(transaction.at(pointer))) {
+
+                    case DESCEND: {
+                        if (approvers) {
+                            StorageApprovers.instance().approveeTransactions(StorageApprovers.instance().approveePointer(transaction.hash(hash)), nonAnalyzedTransactions::offer);
+                        } else {
+                            nonAnalyzedTransactions.offer(transaction.trunkTransactionPointer());
+                            nonAnalyzedTransactions.offer(transaction.branchTransactionPointer());
+                        }
+                    }
+                    break;
+
+                    case STOP: {
+                        return false;
+                    }
+
+                    default:
+                }
+            }
+        }
+        return true;
+    }
+}
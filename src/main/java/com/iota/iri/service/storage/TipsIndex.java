@@ -0,0 +1,115 @@
+package com.iota.iri.service.storage;
+
+import java.util.Arrays;
+
+/**
+ * Dense set of tip pointers, counting and picking tips no longer scans the tips flags of the whole storage.
+ *
+ * The flags stay the persisted form, the set is rebuilt from them on startup.
+ * Positions are tracked in an open-addressing table, so removal is O(1) too. Not thread-safe.
+ */
+class TipsIndex {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final long EMPTY_SLOT = 0; // No cell lives at pointer 0
+
+    private long[] tips = new long[INITIAL_CAPACITY];
+    private int size;
+
+    private long[] slots = new long[INITIAL_CAPACITY << 1];
+    private int[] positions = new int[INITIAL_CAPACITY << 1];
+
+    boolean add(final long pointer) {
+
+        int slot = slot(pointer);
+        while (slots[slot] != EMPTY_SLOT) {
+            if (slots[slot] == pointer) {
+                return false;
+            }
+            slot = (slot + 1) & (slots.length - 1);
+        }
+
+        if (size == tips.length) {
+            tips = Arrays.copyOf(tips, size << 1);
+        }
+        slots[slot] = pointer;
+        positions[slot] = size;
+        tips[size++] = pointer;
+
+        if (size << 1 > slots.length) {
+            rehash(slots.length << 1);
+        }
+        return true;
+    }
+
+    boolean remove(final long pointer) {
+
+        final int slot = find(pointer);
+        if (slot < 0) {
+            return false;
+        }
+        final int position = positions[slot];
+        removeSlot(slot);
+
+        final long lastTip = tips[--size]; // The last tip fills the gap
+        if (position != size) {
+            tips[position] = lastTip;
+            positions[find(lastTip)] = position;
+        }
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long tip(final int position) {
+        return tips[position];
+    }
+
+    void clear() {
+        Arrays.fill(slots, EMPTY_SLOT);
+        size = 0;
+    }
+
+    private int find(final long pointer) {
+
+        for (int slot = slot(pointer); slots[slot] != EMPTY_SLOT; slot = (slot + 1) & (slots.length - 1)) {
+            if (slots[slot] == pointer) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void removeSlot(int slot) { // Shifts back the following entries whose probe sequence passes through the freed slot
+
+        final int mask = slots.length - 1;
+        for (int next = (slot + 1) & mask; slots[next] != EMPTY_SLOT; next = (next + 1) & mask) {
+            if (((next - slot(slots[next])) & mask) >= ((next - slot) & mask)) {
+                slots[slot] = slots[next];
+                positions[slot] = positions[next];
+                slot = next;
+            }
+        }
+        slots[slot] = EMPTY_SLOT;
+    }
+
+    private void rehash(final int capacity) {
+
+        slots = new long[capacity];
+        positions = new int[capacity];
+        for (int position = 0; position < size; position++) {
+            int slot = slot(tips[position]);
+            while (slots[slot] != EMPTY_SLOT) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            slots[slot] = tips[position];
+            positions[slot] = position;
+        }
+    }
+
+    private int slot(final long pointer) {
+        return (int) ((pointer >>> 11) * 0x9E3779B97F4A7C15L >>> 32) & (slots.length - 1);
+    }
+}
@@ -0,0 +1,111 @@
+package com.iota.iri.service.storage;
+
+import java.util.Arrays;
+
+/**
+ * Private set of analyzed transaction flags for one tangle walk.
+ *
+ * Contexts are pooled by {@link StorageScratchpad#traversalContext()} and handed back on {@link #close()},
+ * so independent walks don't need to serialize on a shared bitmap.
+ * Every word of flags is tagged with the generation it was written in, clearing just starts a new generation
+ * and saving/loading only copies the words touched during the current one.
+ */
+public class TraversalContext implements AutoCloseable {
+
+    private static final int INITIAL_NUMBER_OF_WORDS = 1 << 10;
+
+    private long[] flags = new long[INITIAL_NUMBER_OF_WORDS];
+    private int[] generations = new int[INITIAL_NUMBER_OF_WORDS];
+    private int generation = 1;
+
+    private int[] touchedWords = new int[INITIAL_NUMBER_OF_WORDS];
+    private int numberOfTouchedWords;
+
+    private int[] savedWords = new int[0];
+    private long[] savedFlags = new long[0];
+    private int numberOfSavedWords;
+
+    TraversalContext() {
+    }
+
+    public boolean analyzedTransactionFlag(final long pointer) {
+        final int index = index(pointer);
+        final int word = index >> 6;
+        return word < flags.length && generations[word] == generation && (flags[word] & (1L << index)) != 0;
+    }
+
+    public boolean setAnalyzedTransactionFlag(final long pointer) {
+
+        final int index = index(pointer);
+        final int word = index >> 6;
+        if (word >= flags.length) {
+            final int numberOfWords = Math.max(flags.length << 1, word + 1);
+            flags = Arrays.copyOf(flags, numberOfWords);
+            generations = Arrays.copyOf(generations, numberOfWords);
+        }
+
+        if (generations[word] != generation) {
+            generations[word] = generation;
+            flags[word] = 1L << index;
+            touch(word);
+            return true;
+        }
+
+        final long value = flags[word];
+        if ((value & (1L << index)) == 0) {
+            flags[word] = value | (1L << index);
+            return true;
+        }
+        return false;
+    }
+
+    public void clearAnalyzedTransactionsFlags() {
+        if (++generation == 0) { // Tags of an overflowed generation can't be trusted anymore
+            Arrays.fill(generations, 0);
+            generation = 1;
+        }
+        numberOfTouchedWords = 0;
+    }
+
+    public void saveAnalyzedTransactionsFlags() {
+
+        if (savedWords.length < numberOfTouchedWords) {
+            savedWords = new int[touchedWords.length];
+            savedFlags = new long[touchedWords.length];
+        }
+        for (int i = 0; i < numberOfTouchedWords; i++) {
+            savedWords[i] = touchedWords[i];
+            savedFlags[i] = flags[touchedWords[i]];
+        }
+        numberOfSavedWords = numberOfTouchedWords;
+    }
+
+    public void loadAnalyzedTransactionsFlags() {
+
+        clearAnalyzedTransactionsFlags();
+        for (int i = 0; i < numberOfSavedWords; i++) {
+            final int word = savedWords[i];
+            generations[word] = generation;
+            flags[word] = savedFlags[i];
+            touch(word);
+        }
+    }
+
+    @Override
+    public void close() {
+        clearAnalyzedTransactionsFlags();
+        numberOfSavedWords = 0;
+        StorageScratchpad.instance().releaseTraversalContext(this);
+    }
+
+    private void touch(final int word) {
+        if (numberOfTouchedWords == touchedWords.length) {
+            touchedWords = Arrays.copyOf(touchedWords, touchedWords.length << 1);
+        }
+        touchedWords[numberOfTouchedWords++] = word;
+    }
+
+    private static int index(final long pointer) {
+        return (int) ((pointer - (AbstractStorage.CELLS_OFFSET - AbstractStorage.SUPER_GROUPS_OFFSET)) >> 11);
+    }
+}
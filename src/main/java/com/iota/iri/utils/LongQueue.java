@@ -0,0 +1,66 @@
+package com.iota.iri.utils;
+
+import java.util.NoSuchElementException;
+
+/**
+ * FIFO queue of primitive longs backed by a growable ring buffer.
+ *
+ * Used for tangle walks where a {@code Queue<Long>} would box every pointer and allocate a node per offer.
+ */
+public class LongQueue {
+
+    private static final int DEFAULT_CAPACITY = 1 << 10;
+
+    private long[] elements;
+    private int head, size;
+
+    public LongQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongQueue(final int capacity) {
+        elements = new long[Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1];
+    }
+
+    public void offer(final long element) {
+
+        if (size == elements.length) {
+            grow();
+        }
+        elements[(head + size++) & (elements.length - 1)] = element;
+    }
+
+    public long poll() {
+
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        final long element = elements[head];
+        head = (head + 1) & (elements.length - 1);
+        size--;
+        return element;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private void grow() {
+
+        final long[] grownElements = new long[elements.length << 1];
+        final int numberOfElementsTillEnd = elements.length - head;
+        System.arraycopy(elements, head, grownElements, 0, numberOfElementsTillEnd);
+        System.arraycopy(elements, 0, grownElements, numberOfElementsTillEnd, head);
+        elements = grownElements;
+        head = 0;
+    }
+}
@@ -0,0 +1,41 @@
+package com.iota.iri.hash;
+
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class BatchCurlTest {
+
+	final static int TRANSACTION_TRINARY_SIZE = 8019;
+
+	@Test
+	public void testBatchMatchesCurl() {
+		Random random = new Random(1);
+		BatchCurl batchCurl = new BatchCurl();
+		for (int numberOfInstances : new int[] {1, 7, BatchCurl.MAX_NUMBER_OF_INSTANCES}) {
+			for (int length : new int[] {100, Curl.HASH_LENGTH, TRANSACTION_TRINARY_SIZE}) {
+				int[][] trits = new int[numberOfInstances][length],
+						batchHashTrits = new int[numberOfInstances][2 * Curl.HASH_LENGTH];
+				for (int[] instanceTrits : trits) {
+					for (int i = 0; i < length; i++) {
+						instanceTrits[i] = random.nextInt(3) - 1;
+					}
+				}
+				batchCurl.reset();
+				batchCurl.absorb(trits, numberOfInstances, 0, length);
+				batchCurl.squeeze(batchHashTrits, numberOfInstances, 0, 2 * Curl.HASH_LENGTH);
+
+				for (int instance = 0; instance < numberOfInstances; instance++) {
+					Curl curl = new Curl();
+					int[] hashTrits = new int[2 * Curl.HASH_LENGTH];
+					curl.absorb(trits[instance], 0, length);
+					curl.squeeze(hashTrits, 0, hashTrits.length);
+					assertTrue("Instance " + instance + " of " + numberOfInstances + " should hash like Curl",
+							Arrays.equals(hashTrits, batchHashTrits[instance]));
+				}
+			}
+		}
+	}
+}
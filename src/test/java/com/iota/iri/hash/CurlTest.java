@@ -0,0 +1,79 @@
+package com.iota.iri.hash;
+
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class CurlTest {
+
+	final static int STATE_LENGTH = 3 * Curl.HASH_LENGTH;
+	final static int[] TRUTH_TABLE = {1, 0, -1, 1, -1, 0, -1, 1, 0};
+
+	@Test
+	public void testMatchesReferenceTransform() {
+		Random random = new Random(1);
+		Curl curl = new Curl();
+		for (int length : new int[] {1, 100, Curl.HASH_LENGTH, 2 * Curl.HASH_LENGTH + 1, 8019}) {
+			for (int iteration = 0; iteration < 20; iteration++) {
+				int[] trits = new int[length],
+						hashTrits = new int[2 * Curl.HASH_LENGTH];
+				for (int i = 0; i < length; i++) {
+					trits[i] = random.nextInt(3) - 1;
+				}
+				curl.reset();
+				curl.absorb(trits, 0, length);
+				curl.squeeze(hashTrits, 0, hashTrits.length);
+				assertTrue("Hash of " + length + " trits should match the reference Curl",
+						Arrays.equals(referenceHash(trits, hashTrits.length), hashTrits));
+			}
+		}
+	}
+
+	@Test
+	public void testResetBetweenHashes() {
+		Curl curl = new Curl();
+		int[] trits = new int[Curl.HASH_LENGTH],
+				firstHashTrits = new int[Curl.HASH_LENGTH],
+				secondHashTrits = new int[Curl.HASH_LENGTH];
+		Arrays.fill(trits, 1);
+		curl.absorb(trits, 0, trits.length);
+		curl.squeeze(firstHashTrits, 0, Curl.HASH_LENGTH);
+		curl.reset();
+		curl.absorb(trits, 0, trits.length);
+		curl.squeeze(secondHashTrits, 0, Curl.HASH_LENGTH);
+		assertTrue("Reset should restore the initial state", Arrays.equals(firstHashTrits, secondHashTrits));
+	}
+
+	// The original allocating transform with the branch per trit
+	private static int[] referenceHash(int[] trits, int hashLength) {
+		int[] state = new int[STATE_LENGTH],
+				hashTrits = new int[hashLength];
+		int offset = 0, length = trits.length;
+		do {
+			System.arraycopy(trits, offset, state, 0, length < Curl.HASH_LENGTH ? length : Curl.HASH_LENGTH);
+			referenceTransform(state);
+			offset += Curl.HASH_LENGTH;
+		} while ((length -= Curl.HASH_LENGTH) > 0);
+		offset = 0;
+		length = hashLength;
+		do {
+			System.arraycopy(state, 0, hashTrits, offset, length < Curl.HASH_LENGTH ? length : Curl.HASH_LENGTH);
+			referenceTransform(state);
+			offset += Curl.HASH_LENGTH;
+		} while ((length -= Curl.HASH_LENGTH) > 0);
+		return hashTrits;
+	}
+
+	private static void referenceTransform(int[] state) {
+		int[] scratchpad = new int[STATE_LENGTH];
+		int scratchpadIndex = 0;
+		for (int round = 0; round < 27; round++) {
+			System.arraycopy(state, 0, scratchpad, 0, STATE_LENGTH);
+			for (int stateIndex = 0; stateIndex < STATE_LENGTH; stateIndex++) {
+				state[stateIndex] = TRUTH_TABLE[scratchpad[scratchpadIndex] + scratchpad[scratchpadIndex += (scratchpadIndex < 365 ? 364 : -365)] * 3 + 4];
+			}
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.iota.iri.service.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.iota.iri.model.Transaction;
+
+public class StorageAddressesTest {
+
+	private TemporaryStorage storage;
+
+	@Before
+	public void setUp() throws IOException {
+		storage = new TemporaryStorage();
+		storage.open();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		storage.close();
+		storage.delete();
+	}
+
+	@Test
+	public void testCompactedRunsReadBack() {
+		Random random = new Random(1);
+		Transaction transaction = TemporaryStorage.randomTransactions(random, 1).get(0);
+		List<Long> transactionPointers = new ArrayList<>();
+		int numberOfCompactions = 0;
+
+		synchronized (Storage.class) {
+			for (int i = 0; i < 5 * StorageAddresses.COMPACTION_THRESHOLD + 17; i++) {
+				index(random, transaction, transactionPointers);
+
+				if (random.nextInt(200) == 0) {
+					// Transactions indexed while the run is forced end up in the tail of the switched leaf
+					StorageAddresses.Compaction compaction = StorageAddresses.instance().startCompaction();
+					if (compaction != null) {
+						for (int j = random.nextInt(3 * StorageAddresses.COMPACTION_THRESHOLD / 2); j >= 0; j--, i++) {
+							index(random, transaction, transactionPointers);
+						}
+						StorageAddresses.instance().finishCompaction(compaction);
+						numberOfCompactions++;
+					}
+				}
+			}
+			while (StorageAddresses.instance().compactNextAddress()) {
+				numberOfCompactions++;
+			}
+		}
+		assertTrue("The address should have been compacted more than once", numberOfCompactions > 1);
+
+		long addressPointer = StorageAddresses.instance().addressPointer(transaction.address);
+		assertEquals(transactionPointers, StorageAddresses.instance().addressTransactions(addressPointer));
+		for (int offset : new int[] {1, StorageAddresses.COMPACTION_THRESHOLD - 1, 3 * StorageAddresses.COMPACTION_THRESHOLD + 5, transactionPointers.size()}) {
+			List<Long> addressTransactions = new ArrayList<>();
+			assertEquals(transactionPointers.size(), StorageAddresses.instance().addressTransactions(addressPointer, offset, addressTransactions::add));
+			assertEquals("From " + offset, transactionPointers.subList(offset, transactionPointers.size()), addressTransactions);
+		}
+	}
+
+	private static void index(Random random, Transaction transaction, List<Long> transactionPointers) {
+		// Repeated, decreasing and far apart pointers, so the deltas cover zero, negative and multi-byte varints
+		long transactionIndex;
+		switch (random.nextInt(4)) {
+			case 0: transactionIndex = transactionPointers.isEmpty() ? 1 : transactionPointers.get(transactionPointers.size() - 1) >> 11; break;
+			case 1: transactionIndex = 1 + random.nextInt(1000); break;
+			case 2: transactionIndex = 1 + (random.nextLong() >>> 24); break;
+			default: transactionIndex = 1 + random.nextInt(1 << 20);
+		}
+		StorageAddresses.instance().updateAddresses(transactionIndex << 11, transaction);
+		transactionPointers.add(transactionIndex << 11);
+	}
+}
@@ -0,0 +1,107 @@
+package com.iota.iri.service.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.iota.iri.model.Transaction;
+
+public class StorageExporterTest {
+
+	private TemporaryStorage storage;
+	private List<Transaction> transactions;
+	private long[] pointers;
+
+	@Before
+	public void setUp() throws IOException {
+		storage = new TemporaryStorage();
+		storage.open();
+		// More than two frames
+		transactions = TemporaryStorage.randomTransactions(new Random(1), 2 * StorageExporter.MAX_NUMBER_OF_TRANSACTIONS_PER_FRAME + 100);
+		pointers = StorageTransactions.instance().storeTransactions(transactions);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		storage.close();
+		storage.delete();
+	}
+
+	@Test
+	public void testExportReadsBack() throws IOException {
+		Set<ByteBuffer> exportedTransactions = read(export(0, Integer.MAX_VALUE));
+		assertEquals(transactions.size(), exportedTransactions.size());
+		for (Transaction transaction : transactions) {
+			assertTrue(exportedTransactions.contains(ByteBuffer.wrap(transaction.bytes)));
+		}
+	}
+
+	@Test
+	public void testRangeExcludesUnconfirmedTransactions() throws IOException {
+		for (int i = 0; i < 100; i++) {
+			StorageTransactions.instance().setConfirmingMilestoneIndex(pointers[i], 10 + i % 4);
+		}
+		assertEquals(50, read(export(11, 12)).size());
+		assertEquals(75, read(export(0, 12)).size());
+		assertEquals(100, read(export(10, Integer.MAX_VALUE)).size());
+		assertEquals(transactions.size(), read(export(0, Integer.MAX_VALUE)).size());
+	}
+
+	@Test
+	public void testTruncatedExportIsDetected() throws IOException {
+		byte[] export = export(0, Integer.MAX_VALUE);
+		for (int length : new int[] {export.length - 1, export.length - 12, export.length / 2, 20}) {
+			try {
+				read(Arrays.copyOf(export, length));
+				fail("Truncation to " + length + " bytes should be detected");
+			} catch (IOException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("truncated"));
+			}
+		}
+	}
+
+	@Test
+	public void testChecksumMismatchIsDetected() throws IOException {
+		byte[] export = export(0, Integer.MAX_VALUE);
+		export[Integer.BYTES * 2 + Integer.BYTES * 2] ^= 1; // The checksum of the first frame
+		try {
+			read(export);
+			fail("The checksum mismatch should be detected");
+		} catch (IOException e) {
+			assertEquals("Checksum mismatch in frame #0", e.getMessage());
+		}
+	}
+
+	private static byte[] export(int fromMilestoneIndex, int toMilestoneIndex) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new StorageExporter().exportTransactions(output, fromMilestoneIndex, toMilestoneIndex);
+		return output.toByteArray();
+	}
+
+	private static Set<ByteBuffer> read(byte[] export) throws IOException {
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(export));
+		assertEquals(StorageExporter.MAGIC, input.readInt());
+		Set<ByteBuffer> transactions = new HashSet<>();
+		try (StorageExporter.FrameReader reader = new StorageExporter.FrameReader(input)) {
+			byte[] payload;
+			while ((payload = reader.read()).length > 0) {
+				for (int offset = 0; offset < payload.length; offset += Transaction.BYTES_SIZE) {
+					transactions.add(ByteBuffer.wrap(Arrays.copyOfRange(payload, offset, offset + Transaction.BYTES_SIZE)));
+				}
+			}
+		}
+		return transactions;
+	}
+}
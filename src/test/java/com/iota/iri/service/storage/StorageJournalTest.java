@@ -0,0 +1,142 @@
+package com.iota.iri.service.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.model.Hash;
+import com.iota.iri.model.Transaction;
+
+public class StorageJournalTest {
+
+	private TemporaryStorage storage;
+	private String flushInterval;
+
+	@Before
+	public void setUp() throws IOException {
+		// No flush may delete the segment before the test copies it
+		flushInterval = Configuration.string(DefaultConfSettings.DB_FLUSH_INTERVAL);
+		Configuration.put(DefaultConfSettings.DB_FLUSH_INTERVAL, "3600");
+		storage = new TemporaryStorage();
+		storage.open();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		storage.close();
+		storage.delete();
+		Configuration.put(DefaultConfSettings.DB_FLUSH_INTERVAL, flushInterval);
+	}
+
+	@Test
+	public void testReplayRestoresLostCells() throws IOException {
+		List<Transaction> transactions = TemporaryStorage.randomTransactions(new Random(1), 300);
+		long[] pointers = new long[transactions.size()];
+		for (int i = 0; i < transactions.size(); i += 30) {
+			System.arraycopy(StorageTransactions.instance().storeTransactions(transactions.subList(i, i + 30)), 0, pointers, i, 30);
+		}
+
+		// Only cells of the first transactions are lost, the headers wouldn't match the files without the last cells
+		long[] lostTransactionCells = new long[10], lostBundleCells = new long[20], lostAddressCells = new long[20],
+				lostTagCells = new long[20], lostApproverCells = new long[20];
+		for (int i = 0; i < 20; i++) {
+			Transaction transaction = transactions.get(i * 10);
+			if (i < lostTransactionCells.length) {
+				lostTransactionCells[i] = AbstractStorage.SUPER_GROUPS_OFFSET + pointers[i * 10 + 5];
+			}
+			lostBundleCells[i] = StorageBundle.instance().bundlePointer(transaction.bundle);
+			lostAddressCells[i] = StorageAddresses.instance().addressPointer(transaction.address);
+			lostTagCells[i] = StorageTags.instance().tagPointer(transaction.tag);
+			lostApproverCells[i] = StorageApprovers.instance().approveePointer(transaction.branchTransaction);
+		}
+
+		Path segment = storage.directory().resolve("journal.1.wal"), copy = storage.directory().resolve("journal.copy");
+		Files.copy(segment, copy);
+		storage.close();
+		Files.move(copy, segment);
+		zeroCells("transactions.iri", lostTransactionCells);
+		zeroCells("bundles.iri", lostBundleCells);
+		zeroCells("addresses.iri", lostAddressCells);
+		zeroCells("tags.iri", lostTagCells);
+		zeroCells("approvers.iri", lostApproverCells);
+		setTipFlags(pointers);
+
+		storage.open();
+
+		for (Transaction transaction : transactions) {
+			Transaction storedTransaction = StorageTransactions.instance().loadTransaction(transaction.hash);
+			assertNotNull("Restored transaction", storedTransaction);
+			assertArrayEquals(transaction.bytes, storedTransaction.bytes);
+
+			Long pointer = storedTransaction.pointer;
+			assertEquals("Bundle", 1, Collections.frequency(StorageBundle.instance().bundleTransactions(StorageBundle.instance().bundlePointer(transaction.bundle)), pointer));
+			assertEquals("Address", 1, Collections.frequency(StorageAddresses.instance().addressesOf(new Hash(transaction.address)), pointer));
+			assertEquals("Tag", 1, Collections.frequency(StorageTags.instance().tagTransactions(StorageTags.instance().tagPointer(transaction.tag)), pointer));
+			assertEquals("Trunk approvers", 1, Collections.frequency(StorageApprovers.instance().approveeTransactions(StorageApprovers.instance().approveePointer(transaction.trunkTransaction)), pointer));
+			assertEquals("Branch approvers", 1, Collections.frequency(StorageApprovers.instance().approveeTransactions(StorageApprovers.instance().approveePointer(transaction.branchTransaction)), pointer));
+
+			// The entries of the lost cells, which may have been reused as trie nodes, mustn't be listed anymore
+			for (long listedPointer : StorageBundle.instance().bundleTransactions(StorageBundle.instance().bundlePointer(transaction.bundle))) {
+				assertArrayEquals("stale bundle entry " + listedPointer, transaction.bundle, listedTransaction("bundle", listedPointer).bundle);
+			}
+			for (long listedPointer : StorageAddresses.instance().addressesOf(new Hash(transaction.address))) {
+				assertArrayEquals("stale address entry " + listedPointer, transaction.address, listedTransaction("address", listedPointer).address);
+			}
+			for (long listedPointer : StorageTags.instance().tagTransactions(StorageTags.instance().tagPointer(transaction.tag))) {
+				assertArrayEquals("stale tag entry " + listedPointer, transaction.tag, listedTransaction("tag", listedPointer).tag);
+			}
+			for (long listedPointer : StorageApprovers.instance().approveeTransactions(StorageApprovers.instance().approveePointer(transaction.trunkTransaction))) {
+				Transaction approver = listedTransaction("approver", listedPointer);
+				assertTrue("stale approver entry " + listedPointer, Arrays.equals(transaction.trunkTransaction, approver.trunkTransaction)
+						|| Arrays.equals(transaction.trunkTransaction, approver.branchTransaction));
+			}
+		}
+		for (Transaction transaction : transactions.subList(1, transactions.size())) {
+			assertFalse("An approved transaction isn't a tip", StorageTransactions.instance().tipFlag(StorageTransactions.instance().transactionPointer(transaction.trunkTransaction)));
+		}
+	}
+
+	private static Transaction listedTransaction(String list, long pointer) {
+		Transaction transaction = StorageTransactions.instance().loadTransaction(pointer);
+		assertEquals("stale " + list + " entry " + pointer, AbstractStorage.FILLED_SLOT, transaction.type);
+		return transaction;
+	}
+
+	private void zeroCells(String fileName, long[] positions) throws IOException {
+		try (FileChannel channel = FileChannel.open(storage.directory().resolve(fileName), StandardOpenOption.WRITE)) {
+			for (long position : positions) {
+				assertTrue(position > 0);
+				channel.write(ByteBuffer.wrap(new byte[AbstractStorage.CELL_SIZE]), position);
+			}
+		}
+	}
+
+	/**
+	 * Loses the clearing of the tip flags, every stored transaction is flagged again.
+	 */
+	private void setTipFlags(long[] pointers) throws IOException {
+		try (FileChannel channel = FileChannel.open(storage.directory().resolve("transactions.iri"), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer flags = channel.map(FileChannel.MapMode.READ_WRITE, AbstractStorage.TIPS_FLAGS_OFFSET, AbstractStorage.TIPS_FLAGS_SIZE);
+			for (long pointer : pointers) {
+				long index = (pointer - (AbstractStorage.CELLS_OFFSET - AbstractStorage.SUPER_GROUPS_OFFSET)) >> 11;
+				flags.put((int) (index >> 3), (byte) (flags.get((int) (index >> 3)) | (1 << (index & 7))));
+			}
+			flags.force();
+		}
+	}
+}
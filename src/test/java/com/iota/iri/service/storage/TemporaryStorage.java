@@ -0,0 +1,72 @@
+package com.iota.iri.service.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import com.iota.iri.conf.Configuration;
+import com.iota.iri.conf.Configuration.DefaultConfSettings;
+import com.iota.iri.hash.Curl;
+import com.iota.iri.model.Transaction;
+
+/**
+ * Storage opened in a temporary directory, and random transactions to fill it with.
+ */
+class TemporaryStorage {
+
+	private final Path directory;
+
+	TemporaryStorage() throws IOException {
+		directory = Files.createTempDirectory("iri-storage-test");
+		Configuration.put(DefaultConfSettings.DB_PATH, directory.toString());
+	}
+
+	void open() throws IOException {
+		Storage.instance().init();
+	}
+
+	void close() {
+		Storage.instance().shutdown();
+	}
+
+	void delete() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	Path directory() {
+		return directory;
+	}
+
+	/**
+	 * The hashes are random trits instead of Curl hashes, the storage never verifies them.
+	 * Every transaction but the first approves an earlier one with its trunk, the branches reference unknown transactions.
+	 */
+	static List<Transaction> randomTransactions(Random random, int numberOfTransactions) {
+		List<Transaction> transactions = new ArrayList<>(numberOfTransactions);
+		List<int[]> hashTrits = new ArrayList<>(numberOfTransactions);
+		for (int i = 0; i < numberOfTransactions; i++) {
+			int[] trits = randomTrits(random, Transaction.TRINARY_SIZE);
+			if (i > 0) {
+				System.arraycopy(hashTrits.get(random.nextInt(i)), 0, trits, Transaction.TRUNK_TRANSACTION_TRINARY_OFFSET, Transaction.TRUNK_TRANSACTION_TRINARY_SIZE);
+			}
+			hashTrits.add(randomTrits(random, Curl.HASH_LENGTH));
+			transactions.add(new Transaction(trits, hashTrits.get(i)));
+		}
+		return transactions;
+	}
+
+	private static int[] randomTrits(Random random, int length) {
+		int[] trits = new int[length];
+		for (int i = 0; i < length; i++) {
+			trits[i] = random.nextInt(3) - 1;
+		}
+		return trits;
+	}
+}
@@ -0,0 +1,64 @@
+package com.iota.iri.service.storage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TipsIndexTest {
+
+	@Test
+	public void testMatchesHashSet() {
+		Random random = new Random(1);
+		TipsIndex tips = new TipsIndex();
+		Set<Long> reference = new HashSet<>();
+		List<Long> pointers = new ArrayList<>();
+		for (int iteration = 0; iteration < 200000; iteration++) {
+			// A small pointer space makes the probe sequences collide, and the index grows past its initial capacity
+			long pointer = AbstractStorage.CELLS_OFFSET + ((long) random.nextInt(5000) << 11);
+			if (random.nextInt(100) < 60) {
+				assertEquals("Adding " + pointer, reference.add(pointer), tips.add(pointer));
+				pointers.add(pointer);
+			} else {
+				if (!pointers.isEmpty() && random.nextBoolean()) {
+					pointer = pointers.get(random.nextInt(pointers.size()));
+				}
+				assertEquals("Removing " + pointer, reference.remove(pointer), tips.remove(pointer));
+			}
+			assertEquals(reference.size(), tips.size());
+			if (iteration % 10000 == 0) {
+				assertEquals(reference, contents(tips));
+			}
+		}
+		assertEquals(reference, contents(tips));
+		for (long pointer : new ArrayList<>(reference)) {
+			assertTrue(tips.remove(pointer));
+		}
+		assertEquals(0, tips.size());
+	}
+
+	@Test
+	public void testClearEmptiesIndex() {
+		TipsIndex tips = new TipsIndex();
+		for (int i = 0; i < 3000; i++) {
+			tips.add(AbstractStorage.CELLS_OFFSET + ((long) i << 11));
+		}
+		tips.clear();
+		assertEquals(0, tips.size());
+		assertFalse(tips.remove(AbstractStorage.CELLS_OFFSET));
+		assertTrue(tips.add(AbstractStorage.CELLS_OFFSET));
+		assertEquals(1, tips.size());
+	}
+
+	private static Set<Long> contents(TipsIndex tips) {
+		Set<Long> contents = new HashSet<>();
+		for (int position = 0; position < tips.size(); position++) {
+			assertTrue("Tip listed twice", contents.add(tips.tip(position)));
+		}
+		return contents;
+	}
+}
@@ -0,0 +1,56 @@
+package com.iota.iri.utils;
+
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LongQueueTest {
+
+	@Test
+	public void testMatchesArrayDeque() {
+		Random random = new Random(1);
+		LongQueue queue = new LongQueue(2);
+		ArrayDeque<Long> reference = new ArrayDeque<>();
+		for (int iteration = 0; iteration < 100000; iteration++) {
+			// Offers slightly more than it polls, so the ring buffer wraps around while it grows
+			if (reference.isEmpty() || random.nextInt(100) < 55) {
+				long element = random.nextLong();
+				queue.offer(element);
+				reference.offer(element);
+			} else {
+				assertEquals("Element #" + iteration, (long) reference.poll(), queue.poll());
+			}
+			assertEquals(reference.size(), queue.size());
+		}
+		while (!reference.isEmpty()) {
+			assertEquals((long) reference.poll(), queue.poll());
+		}
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testClearEmptiesQueue() {
+		LongQueue queue = new LongQueue();
+		for (long element = 1; element <= 5000; element++) {
+			queue.offer(element);
+		}
+		queue.clear();
+		assertTrue(queue.isEmpty());
+		queue.offer(42);
+		assertEquals(1, queue.size());
+		assertEquals(42, queue.poll());
+	}
+
+	@Test
+	public void testPollOnEmptyQueueThrows() {
+		try {
+			new LongQueue().poll();
+			fail("Polling an empty queue should throw");
+		} catch (NoSuchElementException e) {
+			// Expected
+		}
+	}
+}